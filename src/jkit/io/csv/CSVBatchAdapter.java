@@ -0,0 +1,18 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * An empty csv batch handler adapter. Ignores every event.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public class CSVBatchAdapter extends CSVAdapter implements CSVBatchHandler {
+
+  @Override
+  public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+    // nothing to do
+  }
+
+}
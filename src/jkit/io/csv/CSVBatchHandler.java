@@ -0,0 +1,33 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * A csv handler that receives rows in batches. When a reader is used with
+ * such a handler {@link #rows(CSVContext, CSVRowBatch)} is called once per
+ * batch of rows instead of calling {@link #row(CSVContext)},
+ * {@link #rowTitle(CSVContext, String)}, and
+ * {@link #cell(CSVContext, String)} for every row and cell. Column titles,
+ * the start, and the end are still signaled by the usual methods. Numeric
+ * columns have no effect on batches but cells can be parsed by
+ * {@link CSVRowBatch#getLong(int, int)} and
+ * {@link CSVRowBatch#getDouble(int, int)}. The number of rows per batch is
+ * set by {@link CSVReader#setBatchRows(int)}. {@link CSVBatchAdapter} can be
+ * used as adapter class.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public interface CSVBatchHandler extends CSVHandler {
+
+  /**
+   * Is called for every batch of consecutive rows. The batch is reused by the
+   * reader and is only valid during this call. The last batch may contain
+   * fewer rows.
+   * 
+   * @param ctx The context.
+   * @param batch The rows.
+   */
+  void rows(CSVContext ctx, CSVRowBatch batch);
+
+}
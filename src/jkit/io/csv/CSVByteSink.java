@@ -0,0 +1,30 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A sink that can receive the content of cells as undecoded bytes. This
+ * allows to postpone decoding until the content is actually accessed.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVByteTokenizer#raw(CSVByteSink)
+ */
+interface CSVByteSink extends CSVSink {
+
+  /**
+   * Is called instead of {@link #cell(char[], int, int)} for every cell whose
+   * content is needed while the tokenizer passes undecoded bytes. The content
+   * is only valid during the call.
+   * 
+   * @param buf The buffer holding the content. Its position and limit must
+   *          not be modified.
+   * @param off The offset of the content.
+   * @param len The length of the content in bytes.
+   * @return Whether the content of the next cell is needed.
+   */
+  boolean cellBytes(ByteBuffer buf, int off, int len);
+
+}
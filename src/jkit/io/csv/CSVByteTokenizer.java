@@ -0,0 +1,544 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits blocks of bytes into cells. This works for every charset where all
+ * characters below <code>0x80</code> are encoded as single bytes and no other
+ * character contains such a byte. Delimiters and line breaks can then be found
+ * without decoding the input. Only the content of a cell is decoded when the
+ * cell is passed to the sink. The state machine is the same as in
+ * {@link CSVTokenizer}.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVByteTokenizer {
+
+  /** The line separator that replaces line breaks inside of strings. */
+  private static final byte[] NL = bytes(System.getProperty("line.separator"));
+
+  /** The number of bytes of a file that are mapped at once. */
+  private static final long MAP_SIZE = 1L << 26;
+
+  /** The name of the UTF-8 charset. */
+  private static final String UTF8 = "UTF-8";
+
+  /** The name of the ASCII charset. */
+  private static final String ASCII = "US-ASCII";
+
+  /** The name of the ISO-8859-1 charset. */
+  private static final String LATIN1 = "ISO-8859-1";
+
+  /**
+   * Converts an ASCII string to bytes.
+   * 
+   * @param str The string.
+   * @return The bytes.
+   */
+  private static byte[] bytes(final String str) {
+    final byte[] res = new byte[str.length()];
+    for(int i = 0; i < res.length; ++i) {
+      res[i] = (byte) str.charAt(i);
+    }
+    return res;
+  }
+
+  /**
+   * Whether the input can be split into cells without decoding it.
+   * 
+   * @param cs The charset of the input.
+   * @param delimiter The cell delimiter.
+   * @param string The string delimiter.
+   * @return Whether the charset and the delimiters are supported.
+   */
+  public static boolean supports(final Charset cs, final char delimiter,
+      final char string) {
+    if(delimiter >= 0x80 || string >= 0x80) return false;
+    final String name = cs.name();
+    return UTF8.equals(name) || ASCII.equals(name) || LATIN1.equals(name);
+  }
+
+  /** The sink. */
+  private final CSVSink sink;
+
+  /** The cell delimiter. */
+  private final byte delimiter;
+
+  /** The string delimiter. */
+  private final byte string;
+
+  /** Whether runs of ordinary bytes can be scanned in bulk. */
+  private final boolean fast;
+
+  /** The cell delimiter in every byte. */
+  private final long delPattern;
+
+  /** The string delimiter in every byte. */
+  private final long strPattern;
+
+  /** The charset of the input. */
+  private final Charset cs;
+
+  /** The decoder or <code>null</code> if bytes can simply be widened. */
+  private final CharsetDecoder decoder;
+
+  /** The sink receiving undecoded cells or <code>null</code>. */
+  private CSVByteSink raw;
+
+  /** The line break byte that is ignored. */
+  private byte ignore;
+
+  /** The line break byte. */
+  private byte line;
+
+  /** Whether a string may start at the current position. */
+  private boolean canString;
+
+  /** Whether we are inside of a string. */
+  private boolean isString;
+
+  /** Whether the last byte was a string delimiter inside a string. */
+  private boolean endString;
+
+  /** Whether the last byte was a line break. */
+  private boolean afterLn;
+
+  /** Whether bytes were read since the last cell. */
+  private boolean current;
+
+  /** Whether the content of the current cell is needed. */
+  private boolean capture;
+
+  /** Whether processing stops after the current line. */
+  private boolean pause;
+
+  /** Whether the last call to feed returned because of a pause. */
+  private boolean paused;
+
+  /** The content of the current cell. */
+  private byte[] cell;
+
+  /** The current cell as buffer. */
+  private ByteBuffer cellBuf;
+
+  /** The length of the current cell. */
+  private int len;
+
+  /** The decoded content of a cell. */
+  private char[] chars;
+
+  /** The decoded content as buffer. */
+  private CharBuffer charBuf;
+
+  /** The view on the input that is used for decoding. */
+  private ByteBuffer view;
+
+  /**
+   * Creates a tokenizer.
+   * 
+   * @param sink The sink receiving the cells.
+   * @param delimiter The cell delimiter.
+   * @param string The string delimiter.
+   * @param cs The charset of the input.
+   * @see #supports(Charset, char, char)
+   */
+  public CSVByteTokenizer(final CSVSink sink, final char delimiter,
+      final char string, final Charset cs) {
+    if(!supports(cs, delimiter, string)) throw new IllegalArgumentException(
+        "unsupported charset " + cs + " or delimiters");
+    this.sink = sink;
+    this.delimiter = (byte) delimiter;
+    this.string = (byte) string;
+    fast = isPlain(delimiter) && isPlain(string) && delimiter != string;
+    delPattern = CSVBytes.pattern(this.delimiter);
+    strPattern = CSVBytes.pattern(this.string);
+    this.cs = cs;
+    decoder = decoder(cs);
+    canString = true;
+    capture = true;
+    cell = new byte[64];
+    cellBuf = ByteBuffer.wrap(cell);
+    chars = new char[64];
+    charBuf = CharBuffer.wrap(chars);
+  }
+
+  /**
+   * Creates a decoder for cells. Malformed input is replaced.
+   * 
+   * @param cs The supported charset.
+   * @return The decoder or <code>null</code> if bytes can simply be widened.
+   */
+  static CharsetDecoder decoder(final Charset cs) {
+    if(LATIN1.equals(cs.name())) return null;
+    return cs.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * Whether a delimiter allows bulk scanning.
+   * 
+   * @param c The delimiter.
+   * @return Whether the delimiter is no line break.
+   */
+  private static boolean isPlain(final char c) {
+    return c != 0x0 && c != '\r' && c != '\n';
+  }
+
+  /**
+   * Processes the given bytes. The position and limit of the buffer are not
+   * used or modified.
+   * 
+   * @param buf The buffer.
+   * @param off The first byte to process.
+   * @param end The end of the bytes to process (exclusive).
+   * @return The end of the processed bytes. This is the given end unless
+   *         processing was paused.
+   * @see #pause()
+   */
+  public int feed(final ByteBuffer buf, final int off, final int end) {
+    final byte del = delimiter;
+    view = null;
+    paused = false;
+    int i = off;
+    while(i < end) {
+      if(fast && !endString) {
+        final int s = i;
+        // delimiters are ordinary bytes inside of strings
+        i = CSVBytes.find(buf, i, end, isString ? strPattern : delPattern,
+            strPattern);
+        if(i > s) {
+          current = true;
+          afterLn = false;
+          canString = false;
+          if(i == end) {
+            append(buf, s, i - s);
+            return end;
+          }
+          if(!isString && len == 0) {
+            // the cell is completely in the buffer
+            final byte b = buf.get(i);
+            if(b == del) {
+              deliver(buf, s, i - s);
+              current = false;
+              canString = true;
+              ++i;
+              continue;
+            }
+            if(b == line && line != 0x0) {
+              deliver(buf, s, i - s);
+              current = false;
+              capture = sink.line();
+              canString = true;
+              afterLn = true;
+              ++i;
+              if(pause) {
+                pause = false;
+                paused = true;
+                return i;
+              }
+              continue;
+            }
+          }
+          append(buf, s, i - s);
+        }
+      }
+      step(buf.get(i++));
+      if(pause) {
+        pause = false;
+        paused = true;
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Stops processing after the current line. This can be called by the sink
+   * when it receives the end of a line. The call to feed that processed the
+   * line break then returns immediately after it.
+   */
+  public void pause() {
+    pause = true;
+  }
+
+  /**
+   * Processes a range of a file. The range is mapped into memory in segments
+   * and the mapped buffers are processed directly.
+   * 
+   * @param ch The file.
+   * @param from The first byte to process.
+   * @param to The end of the bytes to process (exclusive).
+   * @return The end of the processed bytes. This is the given end unless
+   *         processing was paused.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #pause()
+   */
+  public long feed(final FileChannel ch, final long from, final long to)
+      throws IOException {
+    long pos = from;
+    while(pos < to) {
+      final long len = Math.min(MAP_SIZE, to - pos);
+      final MappedByteBuffer buf = ch.map(MapMode.READ_ONLY, pos, len);
+      int off = 0;
+      while(off < len) {
+        off = feed(buf, off, (int) len);
+        if(paused) {
+          paused = false;
+          return pos + off;
+        }
+      }
+      pos += len;
+    }
+    return to;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The charset of the input.
+   */
+  public Charset charset() {
+    return cs;
+  }
+
+  /**
+   * Passes the content of the following cells to the given sink without
+   * decoding it. Skipped cells and line breaks are still passed to the sink
+   * of the tokenizer.
+   * 
+   * @param sink The sink receiving the undecoded content or <code>null</code>
+   *          to decode the content again.
+   */
+  public void raw(final CSVByteSink sink) {
+    raw = sink;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The line break of the input or <code>0x0</code> if no line break
+   *         was processed yet.
+   */
+  public byte line() {
+    return line;
+  }
+
+  /**
+   * Continues at the beginning of a row. This has the same effect as if the
+   * given line break was the last processed byte.
+   * 
+   * @param lineBreak The line break of the input.
+   */
+  public void resume(final byte lineBreak) {
+    line = lineBreak;
+    ignore = (lineBreak == '\r') ? (byte) '\n' : (byte) '\r';
+    afterLn = true;
+  }
+
+  /**
+   * Passes a single byte through the state machine.
+   * 
+   * @param b The byte.
+   */
+  private void step(final byte b) {
+    current = true;
+    if(b == ignore && ignore != 0x0) return;
+    afterLn = false;
+    if(line == 0x0 && (b == '\r' || b == '\n')) {
+      line = b;
+      ignore = (b == '\r') ? (byte) '\n' : (byte) '\r';
+    }
+    if(b == string) {
+      if(!endString) {
+        if(!isString) {
+          if(canString) {
+            isString = true;
+            return;
+          }
+        } else {
+          endString = true;
+          return;
+        }
+      }
+      endString = false;
+    } else if(endString) {
+      endString = false;
+      isString = false;
+    }
+    if(b == delimiter && !isString) {
+      emit();
+      canString = true;
+      return;
+    }
+    canString = false;
+    if(b == line) {
+      if(isString) {
+        for(final byte n : NL) {
+          add(n);
+        }
+      } else {
+        emit();
+        capture = sink.line();
+        canString = true;
+      }
+      afterLn = true;
+      return;
+    }
+    add(b);
+  }
+
+  /**
+   * Signals the end of the input. The last cell is emitted if necessary.
+   */
+  public void finish() {
+    if(current && (len > 0 || !afterLn)) {
+      emit();
+    }
+  }
+
+  /**
+   * Passes the current cell to the sink.
+   */
+  private void emit() {
+    deliver(cellBuf, 0, len);
+    len = 0;
+    current = false;
+  }
+
+  /**
+   * Decodes the content of a cell and passes it to the sink. When the content
+   * is not needed the sink is only told that a cell was skipped. When a sink
+   * for undecoded cells is set the content is passed to it as is.
+   * 
+   * @param buf The buffer containing the cell.
+   * @param off The offset of the cell.
+   * @param l The length of the cell in bytes.
+   */
+  private void deliver(final ByteBuffer buf, final int off, final int l) {
+    if(!capture) {
+      capture = sink.skipped();
+      return;
+    }
+    if(raw != null) {
+      capture = raw.cellBytes(buf, off, l);
+      return;
+    }
+    if(l > chars.length) {
+      chars = new char[Math.max(l, chars.length * 2)];
+      charBuf = CharBuffer.wrap(chars);
+    }
+    final char[] out = chars;
+    int i = 0;
+    if(decoder == null) {
+      while(i < l) {
+        out[i] = (char) (buf.get(off + i) & 0xff);
+        ++i;
+      }
+      capture = sink.cell(out, 0, l);
+      return;
+    }
+    while(i < l) {
+      final byte b = buf.get(off + i);
+      if(b < 0) {
+        break;
+      }
+      out[i] = (char) b;
+      ++i;
+    }
+    if(i == l) {
+      capture = sink.cell(out, 0, l);
+      return;
+    }
+    // the cell contains non ASCII characters
+    final ByteBuffer src = buf != cellBuf ? view(buf) : buf;
+    src.clear();
+    src.position(off + i);
+    src.limit(off + l);
+    charBuf.clear();
+    charBuf.position(i);
+    decoder.reset();
+    decoder.decode(src, charBuf, true);
+    decoder.flush(charBuf);
+    src.clear();
+    capture = sink.cell(out, 0, charBuf.position());
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param buf The current input buffer.
+   * @return A view on the input whose position and limit can be changed.
+   */
+  private ByteBuffer view(final ByteBuffer buf) {
+    if(view == null) {
+      view = buf.duplicate();
+    }
+    return view;
+  }
+
+  /**
+   * Appends a byte to the current cell.
+   * 
+   * @param b The byte.
+   */
+  private void add(final byte b) {
+    if(capture) {
+      if(len == cell.length) {
+        grow(len + 1);
+      }
+      cell[len] = b;
+    }
+    ++len;
+  }
+
+  /**
+   * Appends bytes to the current cell. When the content of the cell is not
+   * needed only its length is updated.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param l The number of bytes.
+   */
+  private void append(final ByteBuffer buf, final int off, final int l) {
+    if(!capture) {
+      len += l;
+      return;
+    }
+    if(len + l > cell.length) {
+      grow(len + l);
+    }
+    if(buf.hasArray()) {
+      System.arraycopy(buf.array(), buf.arrayOffset() + off, cell, len, l);
+    } else {
+      final ByteBuffer src = view(buf);
+      src.clear();
+      src.position(off);
+      src.get(cell, len, l);
+    }
+    len += l;
+  }
+
+  /**
+   * Grows the cell buffer.
+   * 
+   * @param min The minimal required size.
+   */
+  private void grow(final int min) {
+    final byte[] c = new byte[Math.max(min, cell.length * 2)];
+    System.arraycopy(cell, 0, c, 0, len);
+    cell = c;
+    cellBuf = ByteBuffer.wrap(cell);
+  }
+
+}
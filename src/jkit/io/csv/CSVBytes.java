@@ -0,0 +1,95 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds special bytes eight at a time. The bytes are read as longs and all
+ * eight bytes are compared at once with arithmetic that never carries from
+ * one byte into the next. Special bytes are two given bytes and the control
+ * bytes from <code>0x0</code> to <code>'\r'</code> which include both line
+ * breaks.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVBytes {
+
+  /** The lower seven bits of every byte. */
+  private static final long LOW = 0x7F7F7F7F7F7F7F7FL;
+
+  /** The highest bit of every byte. */
+  private static final long HIGH = 0x8080808080808080L;
+
+  /** One in every byte. */
+  private static final long ONES = 0x0101010101010101L;
+
+  /**
+   * Added to the lower seven bits of every byte so that the highest bit is
+   * set exactly for bytes above <code>'\r'</code>.
+   */
+  private static final long CONTROL = (0x80 - ('\r' + 1)) * ONES;
+
+  /**
+   * No instances.
+   */
+  private CSVBytes() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Repeats a byte in every byte of a long.
+   * 
+   * @param b The byte.
+   * @return The pattern.
+   */
+  public static long pattern(final byte b) {
+    return (b & 0xffL) * ONES;
+  }
+
+  /**
+   * Finds the first special byte.
+   * 
+   * @param buf The buffer.
+   * @param from The first byte to look at.
+   * @param end The end of the range (exclusive).
+   * @param a The pattern of the first special byte.
+   * @param b The pattern of the second special byte.
+   * @return The position of the first special byte or the end of the range.
+   * @see #pattern(byte)
+   */
+  public static int find(final ByteBuffer buf, final int from, final int end,
+      final long a, final long b) {
+    final boolean big = buf.order() == ByteOrder.BIG_ENDIAN;
+    int i = from;
+    while(i + 8 <= end) {
+      final long w = buf.getLong(i);
+      final long m = zeros(w ^ a) | zeros(w ^ b)
+          | ~((w & LOW) + CONTROL | w) & HIGH;
+      if(m != 0) return i + ((big ? Long.numberOfLeadingZeros(m)
+          : Long.numberOfTrailingZeros(m)) >>> 3);
+      i += 8;
+    }
+    final byte x = (byte) a;
+    final byte y = (byte) b;
+    while(i < end) {
+      final byte c = buf.get(i);
+      if(c == x || c == y || (c >= 0 && c <= '\r')) return i;
+      ++i;
+    }
+    return end;
+  }
+
+  /**
+   * Finds zero bytes.
+   * 
+   * @param v The bytes.
+   * @return The highest bit is set exactly in the bytes that are zero.
+   */
+  private static long zeros(final long v) {
+    return ~((v & LOW) + LOW | v) & HIGH;
+  }
+
+}
@@ -0,0 +1,18 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * An empty csv char handler adapter. Ignores every event.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public class CSVCharAdapter extends CSVAdapter implements CSVCharHandler {
+
+  @Override
+  public void cellChars(final CSVContext ctx, final CharSequence content) {
+    // nothing to do
+  }
+
+}
@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * A csv handler that receives the content of cells without creating strings.
+ * When a reader is used with such a handler
+ * {@link #cellChars(CSVContext, CharSequence)} is called instead of
+ * {@link #cell(CSVContext, String)}. {@link CSVCharAdapter} can be used as
+ * adapter class.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public interface CSVCharHandler extends CSVHandler {
+
+  /**
+   * Is called on every cell in the table. The content is a view on the buffer
+   * of the reader and is only valid during this call. Use
+   * {@link CharSequence#toString()} to keep it. The hash code of the content
+   * is the same as the hash code of its string.
+   * 
+   * @param ctx The context.
+   * @param content The content of the current cell.
+   */
+  void cellChars(CSVContext ctx, CharSequence content);
+
+}
@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * A reusable view on a range of a character buffer. The view does not copy
+ * the characters so its content changes when the buffer or the range changes.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVChars implements CharSequence {
+
+  /** The number of characters needed for any integer. */
+  public static final int INT_CHARS = 11;
+
+  /** The buffer. */
+  private char[] buf;
+
+  /** The offset. */
+  private int off;
+
+  /** The length. */
+  private int len;
+
+  /**
+   * Creates an empty view.
+   */
+  public CSVChars() {
+    buf = new char[0];
+  }
+
+  /**
+   * Sets the range of the view.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return This view.
+   */
+  public CSVChars set(final char[] buf, final int off, final int len) {
+    this.buf = buf;
+    this.off = off;
+    this.len = len;
+    return this;
+  }
+
+  /**
+   * Sets the view to the decimal representation of a number.
+   * 
+   * @param dst The buffer the digits are written to. It must have room for
+   *          {@link #INT_CHARS} characters.
+   * @param v The number.
+   * @return This view.
+   */
+  public CSVChars setInt(final char[] dst, final int v) {
+    long n = v;
+    if(n < 0) {
+      n = -n;
+    }
+    int pos = INT_CHARS;
+    do {
+      dst[--pos] = (char) ('0' + n % 10);
+      n /= 10;
+    } while(n != 0);
+    if(v < 0) {
+      dst[--pos] = '-';
+    }
+    return set(dst, pos, INT_CHARS - pos);
+  }
+
+  @Override
+  public int length() {
+    return len;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if(index < 0 || index >= len) throw new IndexOutOfBoundsException(
+        "" + index);
+    return buf[off + index];
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    if(start < 0 || end > len || start > end) {
+      throw new IndexOutOfBoundsException(start + " " + end);
+    }
+    return new String(buf, off + start, end - start);
+  }
+
+  /**
+   * Copies the content into the given array.
+   * 
+   * @param dst The destination.
+   * @param dstBegin The offset in the destination.
+   */
+  public void getChars(final char[] dst, final int dstBegin) {
+    System.arraycopy(buf, off, dst, dstBegin, len);
+  }
+
+  /**
+   * Computes the same hash code as {@link String#hashCode()} of the content.
+   * The hash code changes with the content.
+   */
+  @Override
+  public int hashCode() {
+    return hash(buf, off, len);
+  }
+
+  /**
+   * Computes the same hash code as {@link String#hashCode()} of a range of a
+   * buffer.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return The hash code.
+   */
+  public static int hash(final char[] buf, final int off, final int len) {
+    int h = 0;
+    final int end = off + len;
+    for(int i = off; i < end; ++i) {
+      h = 31 * h + buf[i];
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, off, len);
+  }
+
+}
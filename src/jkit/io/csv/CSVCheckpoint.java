@@ -0,0 +1,179 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The position of a {@link CSVFollower} after the last complete row. A
+ * checkpoint contains everything that is needed to continue reading a file
+ * without reading it from the beginning: the byte offset after the last
+ * complete row, the index of the next row, the line break of the file, and
+ * the column titles. Checkpoints are immutable and can be stored by
+ * {@link #write(DataOutput)}.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVReader#follow(java.nio.file.Path, java.nio.charset.Charset,
+ *      CSVCheckpoint)
+ */
+public final class CSVCheckpoint {
+
+  /** The version of the stored format. */
+  private static final int VERSION = 1;
+
+  /** The byte offset after the last complete row. */
+  private final long offset;
+
+  /** The index of the next row. */
+  private final int row;
+
+  /** The line break or <code>0x0</code> if no line break was read yet. */
+  private final byte line;
+
+  /** The column titles or <code>null</code>. */
+  private final String[] colNames;
+
+  /**
+   * Creates a checkpoint.
+   * 
+   * @param offset The byte offset after the last complete row.
+   * @param row The index of the next row.
+   * @param line The line break or <code>0x0</code> if no line break was read
+   *          yet.
+   * @param colNames The column titles or <code>null</code> if there are none
+   *          or they were not read yet. The array must not be changed
+   *          afterwards.
+   */
+  CSVCheckpoint(final long offset, final int row, final byte line,
+      final String[] colNames) {
+    this.offset = offset;
+    this.row = row;
+    this.line = line;
+    this.colNames = colNames;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The byte offset after the line break of the last complete row.
+   *         For a line break of two bytes this is the offset of the second
+   *         byte.
+   */
+  public long offset() {
+    return offset;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The index of the next row.
+   */
+  public int row() {
+    return row;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The line break of the file or <code>0x0</code> if no line break
+   *         was read yet.
+   */
+  byte line() {
+    return line;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The column titles or <code>null</code> if there are none or they
+   *         were not read yet.
+   */
+  public String[] colNames() {
+    return colNames != null ? colNames.clone() : null;
+  }
+
+  /**
+   * Whether the checkpoint contains column titles.
+   * 
+   * @return Whether there are column titles.
+   */
+  boolean hasColNames() {
+    return colNames != null;
+  }
+
+  /**
+   * Stores the checkpoint.
+   * 
+   * @param out The output.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #read(DataInput)
+   */
+  public void write(final DataOutput out) throws IOException {
+    out.writeInt(VERSION);
+    out.writeLong(offset);
+    out.writeInt(row);
+    out.writeByte(line);
+    if(colNames == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(colNames.length);
+    for(final String name : colNames) {
+      out.writeUTF(name);
+    }
+  }
+
+  /**
+   * Loads a checkpoint.
+   * 
+   * @param in The input.
+   * @return The checkpoint.
+   * @throws IOException If an I/O Exception occurs or the input is no
+   *           checkpoint.
+   * @see #write(DataOutput)
+   */
+  public static CSVCheckpoint read(final DataInput in) throws IOException {
+    final int version = in.readInt();
+    if(version != VERSION) throw new IOException(
+        "unknown checkpoint version " + version);
+    final long offset = in.readLong();
+    final int row = in.readInt();
+    final byte line = in.readByte();
+    final int cols = in.readInt();
+    if(offset < 0 || cols < -1 || (line != 0x0 && line != '\r'
+        && line != '\n')) throw new IOException("invalid checkpoint");
+    String[] colNames = null;
+    if(cols >= 0) {
+      colNames = new String[cols];
+      for(int i = 0; i < cols; ++i) {
+        colNames[i] = in.readUTF();
+      }
+    }
+    return new CSVCheckpoint(offset, row, line, colNames);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if(obj == this) return true;
+    if(!(obj instanceof CSVCheckpoint)) return false;
+    final CSVCheckpoint c = (CSVCheckpoint) obj;
+    return c.offset == offset && c.row == row && c.line == line
+        && Arrays.equals(c.colNames, colNames);
+  }
+
+  @Override
+  public int hashCode() {
+    return (Long.hashCode(offset) * 31 + row) * 31
+        + Arrays.hashCode(colNames);
+  }
+
+  @Override
+  public String toString() {
+    return "checkpoint[" + offset + ":" + row + "]";
+  }
+
+}
@@ -18,19 +18,43 @@ public interface CSVContext {
   CSVReader reader();
 
   /**
-   * Getter.
+   * Getter. Names of columns without titles are created once per column.
    * 
    * @return The name of the current column.
    */
   String colName();
 
   /**
-   * Getter.
+   * Getter. Names of rows without titles are created once per row.
    * 
    * @return The name of the current row.
    */
   String rowName();
 
+  /**
+   * Getter. Other than {@link #colName()} no object is created. The sequence
+   * may be reused and is only valid until the next call of this method or
+   * {@link #rowChars()}. The default implementation returns
+   * {@link #colName()}.
+   * 
+   * @return The name of the current column.
+   */
+  default CharSequence colChars() {
+    return colName();
+  }
+
+  /**
+   * Getter. Other than {@link #rowName()} no object is created. The sequence
+   * may be reused and is only valid until the next call of this method or
+   * {@link #colChars()}. The default implementation returns
+   * {@link #rowName()}.
+   * 
+   * @return The name of the current row.
+   */
+  default CharSequence rowChars() {
+    return rowName();
+  }
+
   /**
    * Getter.
    * 
@@ -45,4 +69,42 @@ public interface CSVContext {
    */
   int col();
 
+  /**
+   * Looks up a column by its title. The lookup takes constant time regardless
+   * of the number of columns. The default implementation knows no titles.
+   * 
+   * @param name The title.
+   * @return The first column with the given title or <code>-1</code> if no
+   *         such title has been read or there are no column titles.
+   */
+  default int colIndex(final String name) {
+    return -1;
+  }
+
+  /**
+   * Skips the rest of the current row. No more events are signaled for the
+   * current row and its remaining cells are not converted. Reading continues
+   * with the next row. Column titles and rows passed to a
+   * {@link CSVBatchHandler} can not be skipped.
+   * 
+   * @throws UnsupportedOperationException If the context can not skip rows.
+   *           This is the default.
+   */
+  default void skipRow() {
+    throw new UnsupportedOperationException("skipRow");
+  }
+
+  /**
+   * Stops reading. No more events except for
+   * {@link CSVHandler#end(CSVContext)} are signaled and the input is not read
+   * further than necessary. This is useful to stop after the first match or
+   * after a number of rows without reading the whole input.
+   * 
+   * @throws UnsupportedOperationException If the context can not stop
+   *           reading. This is the default.
+   */
+  default void stop() {
+    throw new UnsupportedOperationException("stop");
+  }
+
 }
@@ -0,0 +1,473 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the rows of a csv file one at a time. In contrast to a
+ * {@link CSVHandler} the rows are pulled by calling {@link #next()}. The
+ * content of the current row is kept in reused arrays and is only valid until
+ * the next call to {@link #next()}. The settings of the {@link CSVReader} that
+ * opened the cursor are used. Column titles are read before the first row and
+ * can be obtained by {@link #colName(int)}. Cells of columns that are not
+ * selected are <code>null</code>.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVReader#cursor(Reader)
+ */
+public final class CSVCursor implements Closeable {
+
+  /**
+   * Collects the events of the context into the current row.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private final class Rows extends CSVCharAdapter {
+
+    public Rows() {
+      // nothing to do
+    }
+
+    @Override
+    public void colTitle(final CSVContext ctx, final String title) {
+      final int col = ctx.col();
+      if(col >= titles.length) {
+        final String[] t = new String[Math.max(col + 1, titles.length * 2)];
+        System.arraycopy(titles, 0, t, 0, titles.length);
+        titles = t;
+      }
+      titles[col] = title;
+    }
+
+    @Override
+    public void rowTitle(final CSVContext ctx, final String title) {
+      started = true;
+      row = ctx.row();
+      rowName = title;
+    }
+
+    @Override
+    public void row(final CSVContext ctx) {
+      started = true;
+      row = ctx.row();
+    }
+
+    @Override
+    public void cellChars(final CSVContext ctx, final CharSequence content) {
+      final int col = ctx.col();
+      final int len = content.length();
+      if(col >= starts.length) {
+        grow(col + 1);
+      }
+      while(cols <= col) {
+        starts[cols++] = -1;
+      }
+      if(size + len > data.length) {
+        final char[] d = new char[Math.max(size + len, data.length * 2)];
+        System.arraycopy(data, 0, d, 0, size);
+        data = d;
+      }
+      ((CSVChars) content).getChars(data, size);
+      starts[col] = size;
+      size += len;
+      ends[col] = size;
+    }
+
+  }
+
+  /**
+   * Passes the cells to the context and pauses after every row.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private final class Pause implements CSVSink {
+
+    public Pause() {
+      // nothing to do
+    }
+
+    @Override
+    public boolean cell(final char[] buf, final int off, final int len) {
+      return ctx.cell(buf, off, len);
+    }
+
+    @Override
+    public boolean skipped() {
+      return ctx.skipped();
+    }
+
+    @Override
+    public boolean line() {
+      final boolean capture = ctx.line();
+      if(started) {
+        ready = true;
+        if(chars != null) {
+          chars.pause();
+        } else {
+          bytes.pause();
+        }
+      }
+      return capture;
+    }
+
+  }
+
+  /** The context. */
+  final CSVReader.Context ctx;
+
+  /** The character tokenizer or <code>null</code> if bytes are read. */
+  private final CSVTokenizer chars;
+
+  /** The byte tokenizer or <code>null</code> if characters are read. */
+  private final CSVByteTokenizer bytes;
+
+  /** The character input. */
+  private final Reader reader;
+
+  /** The byte input. */
+  private final InputStream in;
+
+  /** The character buffer. */
+  private final char[] cbuf;
+
+  /** The byte buffer. */
+  private final byte[] bbuf;
+
+  /** The byte buffer as buffer or the input buffer. */
+  private ByteBuffer bb;
+
+  /** The parser for numbers. */
+  private final CSVNumbers parser;
+
+  /** The next position in the input buffer. */
+  private int pos;
+
+  /** The end of the valid input in the input buffer. */
+  private int limit;
+
+  /** Whether the end of the input was reached. */
+  private boolean eof;
+
+  /** Whether the current row has started. */
+  private boolean started;
+
+  /** Whether the current row is complete. */
+  private boolean ready;
+
+  /** The index of the current row. */
+  private int row;
+
+  /** The name of the current row or <code>null</code>. */
+  private String rowName;
+
+  /** The column titles. */
+  private String[] titles;
+
+  /** The content of the current row. */
+  private char[] data;
+
+  /** The number of used characters. */
+  private int size;
+
+  /** The start of every cell or <code>-1</code> if the cell is missing. */
+  private int[] starts;
+
+  /** The end of every cell. */
+  private int[] ends;
+
+  /** The number of columns of the current row. */
+  private int cols;
+
+  /** The views on the cells. */
+  private CSVChars[] views;
+
+  /**
+   * Creates a cursor for characters.
+   * 
+   * @param reader The csv reader.
+   * @param r The input.
+   */
+  CSVCursor(final CSVReader reader, final Reader r) {
+    this(reader, r, null, null);
+  }
+
+  /**
+   * Creates a cursor for bytes.
+   * 
+   * @param reader The csv reader.
+   * @param in The input.
+   * @param cs The charset of the input.
+   */
+  CSVCursor(final CSVReader reader, final InputStream in, final Charset cs) {
+    this(reader, null, in, cs);
+  }
+
+  /**
+   * Creates a cursor for the remaining bytes of a buffer.
+   * 
+   * @param reader The csv reader.
+   * @param buf The input.
+   * @param cs The charset of the input which must be supported by
+   *          {@link CSVByteTokenizer}.
+   */
+  CSVCursor(final CSVReader reader, final ByteBuffer buf, final Charset cs) {
+    this(reader, null, null, cs);
+    bb = buf;
+    pos = buf.position();
+    limit = buf.limit();
+  }
+
+  /**
+   * Creates a cursor.
+   * 
+   * @param reader The csv reader.
+   * @param r The character input or <code>null</code>.
+   * @param in The byte input or <code>null</code>.
+   * @param cs The charset of the byte input.
+   */
+  private CSVCursor(final CSVReader reader, final Reader r,
+      final InputStream in, final Charset cs) {
+    final Pause sink = new Pause();
+    final CSVByteTokenizer tok = r == null ? reader.tokenizer(sink, cs)
+        : null;
+    if(tok == null && in == null && r == null) {
+      throw new IllegalArgumentException("unsupported charset " + cs
+          + " or delimiters");
+    }
+    if(tok != null) {
+      bytes = tok;
+      chars = null;
+      this.in = in;
+      this.reader = null;
+      bbuf = in != null ? new byte[CSVReader.BUFFER_SIZE] : null;
+      bb = bbuf != null ? ByteBuffer.wrap(bbuf) : null;
+      cbuf = null;
+    } else {
+      bytes = null;
+      chars = reader.tokenizer(sink);
+      this.in = null;
+      this.reader = r != null ? r : new InputStreamReader(in, cs);
+      cbuf = new char[CSVReader.BUFFER_SIZE];
+      bbuf = null;
+      bb = null;
+    }
+    parser = new CSVNumbers();
+    titles = new String[0];
+    data = new char[256];
+    starts = new int[16];
+    ends = new int[16];
+    views = new CSVChars[16];
+    row = -1;
+    ctx = reader.start(new Rows());
+  }
+
+  /**
+   * Continues in the middle of the input. The input must start at the
+   * beginning of a row.
+   * 
+   * @param line The line break of the input or <code>0x0</code> if the input
+   *          starts at the beginning of the file.
+   * @param row The index of the first row.
+   * @param titles The column titles or <code>null</code>.
+   */
+  void resume(final byte line, final int row, final String[] titles) {
+    if(line != 0x0) {
+      bytes.resume(line);
+    }
+    if(titles != null) {
+      ctx.titles(titles);
+    }
+    ctx.seek(row);
+  }
+
+  /**
+   * Grows the arrays of the cells.
+   * 
+   * @param min The minimal number of columns.
+   */
+  private void grow(final int min) {
+    final int len = Math.max(min, starts.length * 2);
+    final int[] s = new int[len];
+    System.arraycopy(starts, 0, s, 0, cols);
+    starts = s;
+    final int[] e = new int[len];
+    System.arraycopy(ends, 0, e, 0, cols);
+    ends = e;
+    final CSVChars[] v = new CSVChars[len];
+    System.arraycopy(views, 0, v, 0, views.length);
+    views = v;
+  }
+
+  /**
+   * Advances to the next row.
+   * 
+   * @return Whether there is a next row.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public boolean next() throws IOException {
+    started = false;
+    ready = false;
+    rowName = null;
+    size = 0;
+    cols = 0;
+    while(!ready) {
+      if(pos < limit) {
+        pos = chars != null ? chars.feed(cbuf, pos, limit) : bytes.feed(bb,
+            pos, limit);
+        continue;
+      }
+      if(eof) return false;
+      final int n;
+      if(chars != null) {
+        n = reader.read(cbuf);
+      } else {
+        n = in != null ? in.read(bbuf) : -1;
+      }
+      pos = 0;
+      if(n < 0) {
+        limit = 0;
+        eof = true;
+        if(chars != null) {
+          chars.finish();
+        } else {
+          bytes.finish();
+        }
+        ctx.end();
+        return started;
+      }
+      limit = n;
+    }
+    return true;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The index of the current row.
+   */
+  public int row() {
+    return row;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The title of the current row or <code>null</code> if there are no
+   *         row titles.
+   */
+  public String rowName() {
+    return rowName;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The title of the column or <code>null</code> if there are no
+   *         column titles or the column is not selected.
+   */
+  public String colName(final int col) {
+    return col >= 0 && col < titles.length ? titles[col] : null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of columns of the current row. Cells of columns that
+   *         are not selected at the end of the row are not counted.
+   */
+  public int size() {
+    return cols;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return Whether the current row has a cell in the given column.
+   */
+  public boolean has(final int col) {
+    return col >= 0 && col < cols && starts[col] >= 0;
+  }
+
+  /**
+   * Getter. The returned sequence is reused for the same column and is only
+   * valid until the next call to {@link #next()}.
+   * 
+   * @param col The column.
+   * @return The content of the cell or <code>null</code> if the cell is
+   *         missing.
+   */
+  public CharSequence get(final int col) {
+    if(!has(col)) return null;
+    CSVChars v = views[col];
+    if(v == null) {
+      v = new CSVChars();
+      views[col] = v;
+    }
+    return v.set(data, starts[col], ends[col] - starts[col]);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The content of the cell as string or <code>null</code> if the
+   *         cell is missing.
+   */
+  public String getString(final int col) {
+    if(!has(col)) return null;
+    return ctx.string(col, data, starts[col], ends[col] - starts[col]);
+  }
+
+  /**
+   * Parses a cell as long without creating a string.
+   * 
+   * @param col The column.
+   * @return The content of the cell.
+   * @throws NumberFormatException If the cell is missing or not a valid long.
+   */
+  public long getLong(final int col) {
+    if(!has(col)
+        || !parser.parseLong(data, starts[col], ends[col] - starts[col])) {
+      throw new NumberFormatException("For input string: \""
+          + getString(col) + "\"");
+    }
+    return parser.longValue();
+  }
+
+  /**
+   * Parses a cell as double without creating a string.
+   * 
+   * @param col The column.
+   * @return The content of the cell.
+   * @throws NumberFormatException If the cell is missing or not a valid
+   *           double.
+   */
+  public double getDouble(final int col) {
+    if(!has(col)
+        || !parser.parseDouble(data, starts[col], ends[col] - starts[col])) {
+      throw new NumberFormatException("For input string: \""
+          + getString(col) + "\"");
+    }
+    return parser.doubleValue();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(reader != null) {
+      reader.close();
+    } else if(in != null) {
+      in.close();
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * Assigns consecutive codes to distinct strings. Lookups work on arbitrary
+ * character sequences so that a string is only created the first time its
+ * content is seen.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVDictionary {
+
+  /** The strings by code. */
+  private String[] values;
+
+  /** The hash codes by code. */
+  private int[] hashes;
+
+  /** The number of strings. */
+  private int size;
+
+  /** The hash table containing the codes plus one or zero for free slots. */
+  private int[] table;
+
+  /**
+   * Creates an empty dictionary.
+   */
+  public CSVDictionary() {
+    values = new String[16];
+    hashes = new int[16];
+    table = new int[32];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of distinct strings.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param code The code.
+   * @return The string with the given code.
+   */
+  public String get(final int code) {
+    if(code < 0 || code >= size) throw new IndexOutOfBoundsException(
+        "" + code);
+    return values[code];
+  }
+
+  /**
+   * Looks up the code of the given content. New contents are added.
+   * 
+   * @param content The content. The hash code must be the same as the one of
+   *          the equal string.
+   * @return The code.
+   */
+  public int code(final CharSequence content) {
+    final int h = content.hashCode();
+    final int mask = table.length - 1;
+    int i = mix(h) & mask;
+    int c;
+    while((c = table[i]) != 0) {
+      if(hashes[c - 1] == h && equal(values[c - 1], content)) return c - 1;
+      i = (i + 1) & mask;
+    }
+    if(size == values.length) {
+      final String[] v = new String[size * 2];
+      System.arraycopy(values, 0, v, 0, size);
+      values = v;
+      final int[] hs = new int[size * 2];
+      System.arraycopy(hashes, 0, hs, 0, size);
+      hashes = hs;
+    }
+    final int code = size++;
+    values[code] = content.toString();
+    hashes[code] = h;
+    table[i] = code + 1;
+    if(2 * size > table.length) {
+      rehash();
+    }
+    return code;
+  }
+
+  /**
+   * Doubles the size of the hash table.
+   */
+  private void rehash() {
+    final int[] t = new int[table.length * 2];
+    final int mask = t.length - 1;
+    for(int code = 0; code < size; ++code) {
+      int i = mix(hashes[code]) & mask;
+      while(t[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      t[i] = code + 1;
+    }
+    table = t;
+  }
+
+  /**
+   * Spreads the bits of a hash code.
+   * 
+   * @param h The hash code.
+   * @return The spread hash code.
+   */
+  static int mix(final int h) {
+    final int x = h * 0x9E3779B9;
+    return x ^ (x >>> 16);
+  }
+
+  /**
+   * Compares a string with a character sequence.
+   * 
+   * @param str The string.
+   * @param seq The sequence.
+   * @return Whether both have the same content.
+   */
+  private static boolean equal(final String str, final CharSequence seq) {
+    final int len = str.length();
+    if(len != seq.length()) return false;
+    for(int i = 0; i < len; ++i) {
+      if(str.charAt(i) != seq.charAt(i)) return false;
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,802 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A csv handler that passes the events of a single read to several consumers
+ * so that the input is read and parsed only once. Every consumer gets its own
+ * context. A consumer that skips a row or stops reading does not affect the
+ * other consumers, and reading stops when every consumer has stopped.
+ * Consumers that are {@link CSVCharHandler}s get the content of cells as
+ * characters and {@link CSVBatchHandler}s get batches of rows as with a
+ * reader. The cells of a row are converted to a string at most once for all
+ * consumers. Numeric columns have no effect on the consumers.
+ * <p>
+ * Without a pool the consumers are called by the reading thread one after
+ * another. With a pool every consumer runs as a task of its own and gets
+ * copies of the rows in batches through a bounded queue. All events of a
+ * consumer are signaled by its task including the start and the end. The
+ * reading thread only parses and copies the rows and waits when a consumer
+ * falls too far behind. The read returns when every consumer has finished
+ * and throws the first exception of a consumer. A fan-out can only be used
+ * by one read at a time.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public final class CSVFanOut implements CSVCharHandler {
+
+  /**
+   * A consumer with its own context.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private abstract class Consumer implements CSVContext {
+
+    /** The handler. */
+    final CSVHandler hnd;
+
+    /** The handler for characters or <code>null</code>. */
+    final CSVCharHandler chars;
+
+    /** The handler for batches or <code>null</code>. */
+    final CSVBatchHandler batches;
+
+    /** Whether the rest of the current row is skipped. */
+    boolean skip;
+
+    /** Whether the consumer has stopped. */
+    volatile boolean stopped;
+
+    /**
+     * Creates a consumer.
+     * 
+     * @param hnd The handler.
+     */
+    Consumer(final CSVHandler hnd) {
+      this.hnd = hnd;
+      chars = hnd instanceof CSVCharHandler ? (CSVCharHandler) hnd : null;
+      batches = hnd instanceof CSVBatchHandler ? (CSVBatchHandler) hnd
+          : null;
+    }
+
+    /**
+     * Passes a batch of rows to the consumer.
+     * 
+     * @param batch The rows which are only valid during this call.
+     */
+    abstract void rows(CSVRowBatch batch);
+
+    @Override
+    public void skipRow() {
+      if(row() >= 0 && batches == null) {
+        skip = true;
+      }
+    }
+
+    @Override
+    public void stop() {
+      if(stopped) return;
+      stopped = true;
+      skip = true;
+      if(active.decrementAndGet() == 0) {
+        finished = true;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "ctx[" + row() + ":" + col() + "](" + rowName() + ":"
+          + colName() + ")";
+    }
+
+  }
+
+  /**
+   * A consumer that is called by the reading thread.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private final class Direct extends Consumer {
+
+    /**
+     * Creates a consumer.
+     * 
+     * @param hnd The handler.
+     */
+    Direct(final CSVHandler hnd) {
+      super(hnd);
+    }
+
+    @Override
+    void rows(final CSVRowBatch batch) {
+      if(batches != null && !stopped) {
+        batches.rows(this, batch);
+      }
+    }
+
+    @Override
+    public CSVReader reader() {
+      return ctx.reader();
+    }
+
+    @Override
+    public String colName() {
+      return ctx.colName();
+    }
+
+    @Override
+    public String rowName() {
+      return ctx.rowName();
+    }
+
+    @Override
+    public CharSequence colChars() {
+      return ctx.colChars();
+    }
+
+    @Override
+    public CharSequence rowChars() {
+      return ctx.rowChars();
+    }
+
+    @Override
+    public int row() {
+      return ctx.row();
+    }
+
+    @Override
+    public int col() {
+      return ctx.col();
+    }
+
+    @Override
+    public int colIndex(final String name) {
+      return ctx.colIndex(name);
+    }
+
+  }
+
+  /**
+   * A consumer that runs as a task of its own. The reading thread copies the
+   * rows into the free batches of the consumer and passes them on through a
+   * bounded queue. The task returns the batches after signaling their rows.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private final class Worker extends Consumer implements Callable<Void> {
+
+    /** The batches that can be filled. */
+    final BlockingQueue<CSVRowBatch> free;
+
+    /** The filled batches. */
+    final BlockingQueue<CSVRowBatch> full;
+
+    /** The view on the content of cells. */
+    private final CSVChars view;
+
+    /** The task or <code>null</code> if it was not started yet. */
+    Future<Void> task;
+
+    /** The first failure of the handler or <code>null</code>. */
+    Throwable failure;
+
+    /** The current row. */
+    private int row;
+
+    /** The current column. */
+    private int col;
+
+    /** The title of the current row or <code>null</code>. */
+    private String rowName;
+
+    /** The number of column titles that were read so far. */
+    private int known;
+
+    /** The buffer for the digits of indices or <code>null</code>. */
+    private char[] digits;
+
+    /** The view on the digits of indices or <code>null</code>. */
+    private CSVChars index;
+
+    /**
+     * Creates a consumer.
+     * 
+     * @param hnd The handler.
+     */
+    Worker(final CSVHandler hnd) {
+      super(hnd);
+      free = new ArrayBlockingQueue<CSVRowBatch>(depth);
+      full = new ArrayBlockingQueue<CSVRowBatch>(depth + 1);
+      for(int i = 0; i < depth; ++i) {
+        free.add(new CSVRowBatch(CSVReader.BUFFER_SIZE, titled));
+      }
+      view = new CSVChars();
+      row = reader.readColTitles() ? -1 : 0;
+      col = titled ? -1 : 0;
+    }
+
+    @Override
+    void rows(final CSVRowBatch batch) {
+      if(stopped) return;
+      final CSVRowBatch copy;
+      try {
+        copy = free.take();
+      } catch(final InterruptedException e) {
+        throw interrupted();
+      }
+      copy.copy(batch);
+      full.add(copy);
+    }
+
+    @Override
+    public Void call() {
+      try {
+        // as with the reader no titles are known at the start
+        known = 0;
+        hnd.start(this);
+        for(int c = 0; c < titles.length && !stopped; ++c) {
+          if(titles[c] != null) {
+            col = c;
+            known = c + 1;
+            hnd.colTitle(this, titles[c]);
+          }
+        }
+      } catch(final Throwable t) {
+        fail(t);
+      }
+      known = colNames != null ? colNames.length : 0;
+      for(;;) {
+        final CSVRowBatch batch;
+        try {
+          batch = full.take();
+        } catch(final InterruptedException e) {
+          // cancelled
+          return null;
+        }
+        if(batch == END) {
+          break;
+        }
+        if(!stopped) {
+          try {
+            signal(batch);
+          } catch(final Throwable t) {
+            fail(t);
+          }
+        }
+        free.add(batch);
+      }
+      if(failure == null) {
+        row = endRow;
+        col = endCol;
+        hnd.end(this);
+      }
+      return null;
+    }
+
+    /**
+     * Signals the rows of a batch to the handler.
+     * 
+     * @param batch The batch.
+     */
+    private void signal(final CSVRowBatch batch) {
+      if(batches != null) {
+        row = batch.row(batch.rows() - 1);
+        col = 0;
+        batches.rows(this, batch);
+        return;
+      }
+      for(int r = 0; r < batch.rows() && !stopped; ++r) {
+        row = batch.row(r);
+        skip = false;
+        if(titled) {
+          col = -1;
+          rowName = batch.rowName(r);
+          if(rowName != null) {
+            hnd.rowTitle(this, rowName);
+          }
+        }
+        col = 0;
+        final int size = batch.size(r);
+        // rows without cells only have a title
+        if(size > 0 && !skip) {
+          hnd.row(this);
+        }
+        for(int c = 0; c < size && !skip; ++c) {
+          if(!batch.has(r, c)) {
+            continue;
+          }
+          col = c;
+          if(chars != null) {
+            final int start = batch.start(r, c);
+            chars.cellChars(this, view.set(batch.data(), start,
+                batch.end(r, c) - start));
+          } else {
+            hnd.cell(this, batch.getString(r, c));
+          }
+        }
+      }
+    }
+
+    /**
+     * Stops the consumer after a failure of the handler. The remaining
+     * batches are returned without signaling them.
+     * 
+     * @param t The failure.
+     */
+    private void fail(final Throwable t) {
+      if(failure == null) {
+        failure = t;
+      }
+      stop();
+    }
+
+    /**
+     * Waits for the task to finish.
+     * 
+     * @return The failure of the handler or <code>null</code>.
+     */
+    Throwable await() {
+      try {
+        task.get();
+      } catch(final InterruptedException e) {
+        throw interrupted();
+      } catch(final ExecutionException e) {
+        return failure != null ? failure : e.getCause();
+      }
+      return failure;
+    }
+
+    @Override
+    public CSVReader reader() {
+      return reader;
+    }
+
+    @Override
+    public String colName() {
+      if(col < 0) return null;
+      if(colNames == null) return "" + col;
+      if(col >= known) throw new IndexOutOfBoundsException("" + col);
+      return colNames[col];
+    }
+
+    @Override
+    public String rowName() {
+      return rowName != null ? rowName : "" + row;
+    }
+
+    @Override
+    public CharSequence colChars() {
+      if(col < 0) return null;
+      if(colNames == null) return indexChars(col);
+      return colName();
+    }
+
+    @Override
+    public CharSequence rowChars() {
+      return rowName != null ? rowName : indexChars(row);
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param i The index.
+     * @return The index as characters without creating an object.
+     */
+    private CharSequence indexChars(final int i) {
+      if(index == null) {
+        digits = new char[CSVChars.INT_CHARS];
+        index = new CSVChars();
+      }
+      return index.setInt(digits, i);
+    }
+
+    @Override
+    public int row() {
+      return row;
+    }
+
+    @Override
+    public int col() {
+      return col;
+    }
+
+    @Override
+    public int colIndex(final String name) {
+      if(colIndex == null) return -1;
+      final Integer c = colIndex.get(name);
+      return c != null && c < known ? c : -1;
+    }
+
+  }
+
+  /** Marks the end of the batches. */
+  private static final CSVRowBatch END = new CSVRowBatch(0);
+
+  /** The handlers of the consumers. */
+  private final CSVHandler[] handlers;
+
+  /** The pool running the consumers or <code>null</code>. */
+  private final ExecutorService pool;
+
+  /** The number of batches per consumer. */
+  private final int depth;
+
+  /** The number of consumers that have not stopped. */
+  private final AtomicInteger active;
+
+  /** Whether every consumer has stopped. */
+  private volatile boolean finished;
+
+  /** The consumers of the current read. */
+  private Consumer[] consumers;
+
+  /** The context of the current read. */
+  private CSVContext ctx;
+
+  /** The reader of the current read. */
+  private CSVReader reader;
+
+  /** Whether the first cell of every row is its title. */
+  private boolean titled;
+
+  /** The number of rows per batch. */
+  private int batchRows;
+
+  /** The titles of the selected columns by index. */
+  private String[] titles;
+
+  /** All column titles or <code>null</code> if there are none. */
+  private String[] colNames;
+
+  /** The first column of every title. */
+  private Map<String, Integer> colIndex;
+
+  /** The rows that are collected for batches or <code>null</code>. */
+  private CSVRowBatch batch;
+
+  /** The buffer for copying cells to the batch. */
+  private char[] buf;
+
+  /** The current row or <code>-1</code> before the first row. */
+  private int open;
+
+  /** The next column of the batch. */
+  private int next;
+
+  /** Whether the current row was started by a cell. */
+  private boolean rowed;
+
+  /** The row of the context at the end. */
+  private int endRow;
+
+  /** The column of the context at the end. */
+  private int endCol;
+
+  /** Whether the consumers got the column titles. */
+  private boolean launched;
+
+  /**
+   * Creates a fan-out that calls the consumers one after another.
+   * 
+   * @param consumers The consumers.
+   */
+  public CSVFanOut(final CSVHandler... consumers) {
+    this(null, 1, consumers);
+  }
+
+  /**
+   * Creates a fan-out that runs every consumer as a task of its own when a
+   * pool is given.
+   * 
+   * @param pool The pool running the consumers or <code>null</code> to call
+   *          them one after another. It must be able to run a task per
+   *          consumer at once.
+   * @param depth The number of batches a consumer can fall behind before the
+   *          reading thread waits. The number of rows of a batch is
+   *          {@link CSVReader#batchRows()}.
+   * @param consumers The consumers.
+   */
+  public CSVFanOut(final ExecutorService pool, final int depth,
+      final CSVHandler... consumers) {
+    if(depth < 1) throw new IllegalArgumentException("depth " + depth);
+    for(final CSVHandler hnd : consumers) {
+      if(hnd == null) throw new NullPointerException("consumer");
+    }
+    handlers = consumers.clone();
+    this.pool = pool;
+    this.depth = depth;
+    active = new AtomicInteger();
+  }
+
+  /**
+   * Cancels the tasks of the consumers. This is necessary when the read
+   * failed since the consumers are waiting for rows that never arrive. The
+   * end is not signaled to cancelled consumers.
+   */
+  public void cancel() {
+    if(consumers == null || pool == null) return;
+    for(final Consumer c : consumers) {
+      final Future<Void> task = ((Worker) c).task;
+      if(task != null) {
+        task.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Cancels the consumers after the reading thread was interrupted.
+   * 
+   * @return The exception to throw.
+   */
+  private UncheckedIOException interrupted() {
+    Thread.currentThread().interrupt();
+    cancel();
+    return new UncheckedIOException(new InterruptedIOException());
+  }
+
+  @Override
+  public void start(final CSVContext ctx) {
+    this.ctx = ctx;
+    reader = ctx.reader();
+    titled = reader.readRowTitles();
+    batchRows = reader.batchRows();
+    titles = new String[0];
+    colNames = null;
+    colIndex = null;
+    open = -1;
+    launched = false;
+    active.set(handlers.length);
+    finished = handlers.length == 0;
+    consumers = new Consumer[handlers.length];
+    boolean batched = pool != null;
+    for(int i = 0; i < handlers.length; ++i) {
+      consumers[i] = pool != null ? new Worker(handlers[i])
+          : new Direct(handlers[i]);
+      batched |= consumers[i].batches != null;
+    }
+    batch = batched ? new CSVRowBatch(CSVReader.BUFFER_SIZE, titled) : null;
+    buf = batched ? new char[64] : null;
+    if(pool != null) return;
+    for(final Consumer c : consumers) {
+      c.hnd.start(c);
+    }
+  }
+
+  @Override
+  public void colTitle(final CSVContext ctx, final String title) {
+    final int col = ctx.col();
+    if(col >= titles.length) {
+      titles = Arrays.copyOf(titles, Math.max(col + 1, titles.length * 2));
+    }
+    titles[col] = title;
+    if(pool != null) return;
+    for(final Consumer c : consumers) {
+      if(!c.stopped) {
+        c.hnd.colTitle(c, title);
+      }
+    }
+  }
+
+  @Override
+  public void rowTitle(final CSVContext ctx, final String title) {
+    begin(ctx.row());
+    if(batch != null) {
+      append(title);
+      next = 0;
+    }
+    if(pool != null) return;
+    for(final Consumer c : consumers) {
+      if(!c.skip && c.batches == null) {
+        c.hnd.rowTitle(c, title);
+      }
+    }
+  }
+
+  @Override
+  public void row(final CSVContext ctx) {
+    begin(ctx.row());
+    rowed = true;
+    if(batch != null && next < 0) {
+      batch.skipped();
+      next = 0;
+    }
+    if(pool == null) {
+      for(final Consumer c : consumers) {
+        if(!c.skip && c.batches == null) {
+          c.hnd.row(c);
+        }
+      }
+    }
+    check();
+  }
+
+  @Override
+  public void cell(final CSVContext ctx, final String content) {
+    cellChars(ctx, content);
+  }
+
+  @Override
+  public void cellChars(final CSVContext ctx, final CharSequence content) {
+    if(batch != null) {
+      final int col = ctx.col();
+      while(next < col) {
+        batch.skipped();
+        ++next;
+      }
+      append(content);
+      ++next;
+    }
+    if(pool == null) {
+      String str = null;
+      for(final Consumer c : consumers) {
+        if(c.skip || c.batches != null) {
+          continue;
+        }
+        if(c.chars != null) {
+          c.chars.cellChars(c, content);
+        } else {
+          if(str == null) {
+            str = content.toString();
+          }
+          c.hnd.cell(c, str);
+        }
+      }
+    }
+    check();
+  }
+
+  /**
+   * Starts a row. The previous row is added to the batch and the consumers
+   * get the column titles before the first row.
+   * 
+   * @param row The row.
+   */
+  private void begin(final int row) {
+    if(row == open) return;
+    line();
+    launch();
+    open = row;
+    next = titled ? -1 : 0;
+    rowed = false;
+    if(batch != null && batch.isEmpty()) {
+      batch.setFirstRow(row);
+    }
+    if(pool != null) return;
+    for(final Consumer c : consumers) {
+      c.skip = c.stopped;
+    }
+  }
+
+  /**
+   * Ends the current row and passes the batch on when it is full.
+   */
+  private void line() {
+    if(open < 0 || batch == null) return;
+    if(rowed && next == 0) {
+      // the row has no selected cells but was started
+      batch.skipped();
+    }
+    batch.line(open);
+    if(batch.rows() >= batchRows) {
+      flush();
+    }
+  }
+
+  /**
+   * Passes the batch to the consumers.
+   */
+  private void flush() {
+    if(batch.rows() > 0) {
+      for(final Consumer c : consumers) {
+        c.rows(batch);
+      }
+    }
+    batch.clear();
+  }
+
+  /**
+   * Starts the tasks of the consumers if they run in a pool.
+   */
+  private void launch() {
+    if(launched) return;
+    launched = true;
+    if(pool == null) return;
+    if(ctx instanceof CSVReader.Context) {
+      colNames = ((CSVReader.Context) ctx).colNames();
+    } else if(reader.readColTitles()) {
+      colNames = titles.clone();
+    }
+    if(colNames != null) {
+      colIndex = new HashMap<String, Integer>();
+      for(int c = colNames.length - 1; c >= 0; --c) {
+        if(colNames[c] != null) {
+          colIndex.put(colNames[c], c);
+        }
+      }
+    }
+    for(final Consumer c : consumers) {
+      final Worker w = (Worker) c;
+      w.task = pool.submit(w);
+    }
+  }
+
+  /**
+   * Adds a cell to the batch.
+   * 
+   * @param content The content of the cell.
+   */
+  private void append(final CharSequence content) {
+    final int len = content.length();
+    if(len > buf.length) {
+      buf = new char[Math.max(len, buf.length * 2)];
+    }
+    if(content instanceof CSVChars) {
+      ((CSVChars) content).getChars(buf, 0);
+    } else {
+      content.toString().getChars(0, len, buf, 0);
+    }
+    batch.cell(buf, 0, len);
+  }
+
+  /**
+   * Skips the rest of the row when no consumer needs it and stops reading
+   * when every consumer has stopped.
+   */
+  private void check() {
+    if(finished) {
+      ctx.stop();
+      return;
+    }
+    if(batch != null) return;
+    for(final Consumer c : consumers) {
+      if(!c.skip) return;
+    }
+    ctx.skipRow();
+  }
+
+  @Override
+  public void end(final CSVContext ctx) {
+    launch();
+    line();
+    open = -1;
+    if(batch != null) {
+      flush();
+    }
+    if(pool == null) {
+      for(final Consumer c : consumers) {
+        c.hnd.end(c);
+      }
+      return;
+    }
+    endRow = ctx.row();
+    endCol = ctx.col();
+    for(final Consumer c : consumers) {
+      ((Worker) c).full.add(END);
+    }
+    Throwable failure = null;
+    for(final Consumer c : consumers) {
+      final Throwable t = ((Worker) c).await();
+      if(failure == null) {
+        failure = t;
+      }
+    }
+    if(failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if(failure instanceof Error) throw (Error) failure;
+    if(failure != null) throw new IllegalStateException(failure);
+  }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads multiple files concurrently. Every file gets its own handler and its
+ * own task. Only a window of files is read at once so that the number of open
+ * files and of handlers waiting to be merged stays bounded.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVFiles {
+
+  /**
+   * No instances.
+   */
+  private CSVFiles() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Creates an executor for reading files. On JDKs with virtual threads every
+   * task runs on its own virtual thread. Otherwise a pool of daemon threads
+   * with one thread per processor is used.
+   * 
+   * @return The executor which needs to be shut down after use.
+   */
+  public static ExecutorService executor() {
+    try {
+      final Method m = Executors.class.getMethod(
+          "newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) m.invoke(null);
+    } catch(final ReflectiveOperationException e) {
+      // no virtual threads
+    }
+    return Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+          @Override
+          public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "csv-files");
+            t.setDaemon(true);
+            return t;
+          }
+
+        });
+  }
+
+  /**
+   * Reads files concurrently.
+   * 
+   * @param <H> The type of the handlers.
+   * @param reader The reader providing the configuration.
+   * @param files The files.
+   * @param cs The charset of the files.
+   * @param factory The handler factory.
+   * @param pool The pool reading the files.
+   * @param window The maximal number of files read at once.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public static <H extends CSVHandler> void read(final CSVReader reader,
+      final List<Path> files, final Charset cs,
+      final CSVHandlerFactory<H> factory, final ExecutorService pool,
+      final int window) throws IOException {
+    final Queue<Future<H>> running = new ArrayDeque<Future<H>>();
+    int next = 0;
+    int merged = 0;
+    try {
+      while(merged < files.size()) {
+        while(next < files.size() && running.size() < window) {
+          running.add(pool.submit(task(reader, files.get(next++), cs,
+              factory)));
+        }
+        final Path file = files.get(merged++);
+        factory.merge(file, get(running.poll(), file));
+      }
+    } finally {
+      for(final Future<H> f : running) {
+        f.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Creates a task that reads a file.
+   * 
+   * @param <H> The type of the handler.
+   * @param reader The reader providing the configuration.
+   * @param file The file.
+   * @param cs The charset of the file.
+   * @param factory The handler factory.
+   * @return The task.
+   */
+  private static <H extends CSVHandler> Callable<H> task(
+      final CSVReader reader, final Path file, final Charset cs,
+      final CSVHandlerFactory<H> factory) {
+    return new Callable<H>() {
+
+      @Override
+      public H call() throws Exception {
+        final H hnd = factory.create(file);
+        final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+          reader.read(ch, cs, reader.start(hnd));
+        } finally {
+          ch.close();
+        }
+        return hnd;
+      }
+
+    };
+  }
+
+  /**
+   * Waits for the handler of a file.
+   * 
+   * @param <H> The type of the handler.
+   * @param f The task.
+   * @param file The file.
+   * @return The handler.
+   * @throws IOException If the file could not be read or the thread was
+   *           interrupted.
+   */
+  private static <H> H get(final Future<H> f, final Path file)
+      throws IOException {
+    try {
+      return f.get();
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch(final ExecutionException e) {
+      final Throwable t = e.getCause();
+      if(t instanceof IOException) throw new IOException(
+          "error reading " + file, t);
+      if(t instanceof RuntimeException) throw (RuntimeException) t;
+      if(t instanceof Error) throw (Error) t;
+      throw new IOException(t);
+    }
+  }
+
+}
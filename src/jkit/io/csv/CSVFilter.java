@@ -0,0 +1,275 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * A condition on the content of a cell that rows have to fulfill in order to
+ * be passed to the handler. Filters are registered by
+ * {@link CSVReader#addFilter(CSVFilter)} and are evaluated while the row is
+ * scanned. A row is dropped as soon as a filter fails and the rest of the row
+ * is neither decoded nor buffered. Rows without a cell in the column of a
+ * filter are dropped as well. Filters are immutable.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public abstract class CSVFilter {
+
+  /** The column or <code>-1</code> if the column is given by its title. */
+  private final int col;
+
+  /** The title of the column or <code>null</code>. */
+  private final String name;
+
+  /**
+   * Creates a filter.
+   * 
+   * @param col The column or <code>-1</code> if the column is given by its
+   *          title.
+   * @param name The title of the column or <code>null</code>.
+   */
+  CSVFilter(final int col, final String name) {
+    if(name == null && col < 0) throw new IllegalArgumentException(
+        "invalid column " + col);
+    this.col = col;
+    this.name = name;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The column or <code>-1</code> if the column is given by its
+   *         title.
+   */
+  public int col() {
+    return col;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The title of the column or <code>null</code> if the column is
+   *         given by its index.
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Tests the content of a cell.
+   * 
+   * @param buf The buffer holding the content.
+   * @param off The offset of the content.
+   * @param len The length of the content.
+   * @param parser The number parser of the current thread.
+   * @return Whether the row is kept.
+   */
+  abstract boolean test(char[] buf, int off, int len, CSVNumbers parser);
+
+  /**
+   * Keeps rows whose cell in the given column equals the given value.
+   * 
+   * @param col The column.
+   * @param value The value.
+   * @return The filter.
+   */
+  public static CSVFilter equal(final int col, final String value) {
+    return equal(col, null, value);
+  }
+
+  /**
+   * Keeps rows whose cell in the column with the given title equals the given
+   * value. This requires column titles.
+   * 
+   * @param name The title of the column.
+   * @param value The value.
+   * @return The filter.
+   */
+  public static CSVFilter equal(final String name, final String value) {
+    return equal(-1, name, value);
+  }
+
+  /**
+   * Creates an equality filter.
+   * 
+   * @param col The column or <code>-1</code>.
+   * @param name The title of the column or <code>null</code>.
+   * @param value The value.
+   * @return The filter.
+   */
+  private static CSVFilter equal(final int col, final String name,
+      final String value) {
+    final char[] chars = value.toCharArray();
+    return new CSVFilter(col, name) {
+
+      @Override
+      boolean test(final char[] buf, final int off, final int len,
+          final CSVNumbers parser) {
+        return len == chars.length && matches(chars, buf, off);
+      }
+
+      @Override
+      public String toString() {
+        return column() + " = " + value;
+      }
+
+    };
+  }
+
+  /**
+   * Keeps rows whose cell in the given column starts with the given prefix.
+   * 
+   * @param col The column.
+   * @param prefix The prefix.
+   * @return The filter.
+   */
+  public static CSVFilter prefix(final int col, final String prefix) {
+    return prefix(col, null, prefix);
+  }
+
+  /**
+   * Keeps rows whose cell in the column with the given title starts with the
+   * given prefix. This requires column titles.
+   * 
+   * @param name The title of the column.
+   * @param prefix The prefix.
+   * @return The filter.
+   */
+  public static CSVFilter prefix(final String name, final String prefix) {
+    return prefix(-1, name, prefix);
+  }
+
+  /**
+   * Creates a prefix filter.
+   * 
+   * @param col The column or <code>-1</code>.
+   * @param name The title of the column or <code>null</code>.
+   * @param prefix The prefix.
+   * @return The filter.
+   */
+  private static CSVFilter prefix(final int col, final String name,
+      final String prefix) {
+    final char[] chars = prefix.toCharArray();
+    return new CSVFilter(col, name) {
+
+      @Override
+      boolean test(final char[] buf, final int off, final int len,
+          final CSVNumbers parser) {
+        return len >= chars.length && matches(chars, buf, off);
+      }
+
+      @Override
+      public String toString() {
+        return column() + " starts with " + prefix;
+      }
+
+    };
+  }
+
+  /**
+   * Keeps rows whose cell in the given column is a number in the given range.
+   * 
+   * @param col The column.
+   * @param min The minimum (inclusive).
+   * @param max The maximum (inclusive).
+   * @return The filter.
+   */
+  public static CSVFilter range(final int col, final double min,
+      final double max) {
+    return range(col, null, min, max);
+  }
+
+  /**
+   * Keeps rows whose cell in the column with the given title is a number in
+   * the given range. This requires column titles.
+   * 
+   * @param name The title of the column.
+   * @param min The minimum (inclusive).
+   * @param max The maximum (inclusive).
+   * @return The filter.
+   */
+  public static CSVFilter range(final String name, final double min,
+      final double max) {
+    return range(-1, name, min, max);
+  }
+
+  /**
+   * Creates a range filter.
+   * 
+   * @param col The column or <code>-1</code>.
+   * @param name The title of the column or <code>null</code>.
+   * @param min The minimum (inclusive).
+   * @param max The maximum (inclusive).
+   * @return The filter.
+   */
+  private static CSVFilter range(final int col, final String name,
+      final double min, final double max) {
+    return new CSVFilter(col, name) {
+
+      @Override
+      boolean test(final char[] buf, final int off, final int len,
+          final CSVNumbers parser) {
+        if(!parser.parseDouble(buf, off, len)) return false;
+        final double v = parser.doubleValue();
+        return v >= min && v <= max;
+      }
+
+      @Override
+      public String toString() {
+        return column() + " in [" + min + ", " + max + "]";
+      }
+
+    };
+  }
+
+  /**
+   * Combines two filters on the same column.
+   * 
+   * @param a The first filter.
+   * @param b The second filter.
+   * @param col The column.
+   * @return A filter that keeps rows that are kept by both filters.
+   */
+  static CSVFilter both(final CSVFilter a, final CSVFilter b, final int col) {
+    return new CSVFilter(col, null) {
+
+      @Override
+      boolean test(final char[] buf, final int off, final int len,
+          final CSVNumbers parser) {
+        return a.test(buf, off, len, parser) && b.test(buf, off, len, parser);
+      }
+
+      @Override
+      public String toString() {
+        return a + " and " + b;
+      }
+
+    };
+  }
+
+  /**
+   * Whether the content starts with the given characters.
+   * 
+   * @param chars The characters.
+   * @param buf The buffer holding the content.
+   * @param off The offset of the content.
+   * @return Whether the content starts with the characters.
+   */
+  static boolean matches(final char[] chars, final char[] buf,
+      final int off) {
+    for(int i = 0; i < chars.length; ++i) {
+      if(buf[off + i] != chars[i]) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return A description of the column.
+   */
+  String column() {
+    return name != null ? "\"" + name + "\"" : "column " + col;
+  }
+
+}
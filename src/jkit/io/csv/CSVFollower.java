@@ -0,0 +1,188 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Follows a csv file that grows by appending rows. Every call to
+ * {@link #poll()} reads the bytes that were appended since the last call and
+ * passes the rows that are complete to the handler of the {@link CSVReader}
+ * that opened the follower. A row is complete when its line break was read.
+ * The cells of an incomplete row are kept until the rest of the row arrives.
+ * After every call the position after the last complete row can be obtained
+ * by {@link #checkpoint()} and stored in order to continue reading after a
+ * restart without reading the file from the beginning.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVReader#follow(java.nio.file.Path, Charset, CSVCheckpoint)
+ */
+public final class CSVFollower implements Closeable {
+
+  /**
+   * Collects the cells of the current row and pauses after every row.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private final class Pause implements CSVSink {
+
+    public Pause() {
+      // nothing to do
+    }
+
+    @Override
+    public boolean cell(final char[] buf, final int off, final int len) {
+      return batch.cell(buf, off, len);
+    }
+
+    @Override
+    public boolean skipped() {
+      return batch.skipped();
+    }
+
+    @Override
+    public boolean line() {
+      batch.line();
+      tok.pause();
+      return true;
+    }
+
+  }
+
+  /** The context. */
+  private final CSVReader.Context ctx;
+
+  /** The tokenizer. */
+  private final CSVByteTokenizer tok;
+
+  /** The cells of the current row. */
+  private final CSVRowBatch batch;
+
+  /** The file. */
+  private final FileChannel ch;
+
+  /** The input buffer. */
+  private final ByteBuffer buf;
+
+  /** The position of the next byte to read. */
+  private long pos;
+
+  /** The position after the last complete row. */
+  private long offset;
+
+  /** Whether the follower is closed. */
+  private boolean closed;
+
+  /**
+   * Creates a follower.
+   * 
+   * @param reader The csv reader.
+   * @param ch The file.
+   * @param cs The charset of the file which must be supported by
+   *          {@link CSVByteTokenizer}.
+   * @param from The checkpoint to continue from or <code>null</code> to start
+   *          at the beginning of the file. It must match the column titles
+   *          setting of the reader.
+   * @param ctx The context that was just started.
+   */
+  CSVFollower(final CSVReader reader, final FileChannel ch, final Charset cs,
+      final CSVCheckpoint from, final CSVReader.Context ctx) {
+    this.ch = ch;
+    this.ctx = ctx;
+    tok = reader.tokenizer(new Pause(), cs);
+    batch = new CSVRowBatch(256);
+    buf = ByteBuffer.allocateDirect(CSVReader.BUFFER_SIZE);
+    if(from != null) {
+      pos = from.offset();
+      offset = pos;
+      if(from.line() != 0x0) {
+        tok.resume(from.line());
+      }
+      if(from.hasColNames()) {
+        ctx.titles(from.colNames());
+      }
+      ctx.seek(from.row());
+    }
+  }
+
+  /**
+   * Reads the bytes that were appended to the file since the last call and
+   * passes the complete rows to the handler. A {@link CSVBatchHandler} gets
+   * all of them before the call returns.
+   * 
+   * @return The number of rows that were passed to the handler not counting
+   *         the column titles.
+   * @throws IOException If an I/O Exception occurs or the file got shorter.
+   */
+  public int poll() throws IOException {
+    if(closed) throw new IllegalStateException("follower is closed");
+    final long size = ch.size();
+    if(size < pos) throw new IOException("file was truncated");
+    int rows = 0;
+    try {
+      while(pos < size) {
+        buf.clear();
+        if(size - pos < buf.capacity()) {
+          buf.limit((int) (size - pos));
+        }
+        final int n = ch.read(buf, pos);
+        if(n <= 0) {
+          break;
+        }
+        int off = 0;
+        while(off < n) {
+          off = tok.feed(buf, off, n);
+          if(batch.rows() > 0) {
+            if(ctx.row() >= 0) {
+              ++rows;
+            }
+            batch.replay(ctx);
+            batch.clear();
+            offset = pos + off;
+            if(ctx.stopped()) return rows;
+          }
+        }
+        pos += n;
+      }
+    } finally {
+      // rows before the checkpoint must have reached a batch handler
+      ctx.flush();
+    }
+    return rows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The position after the last complete row.
+   */
+  public CSVCheckpoint checkpoint() {
+    final boolean titles = ctx.row() >= 0;
+    return new CSVCheckpoint(offset, ctx.row(), offset > 0 ? tok.line()
+        : 0x0, titles ? ctx.colNames() : null);
+  }
+
+  /**
+   * Signals the end to the handler and closes the file. An incomplete row at
+   * the end of the file is not passed to the handler. It is read again when
+   * continuing from the last checkpoint.
+   * 
+   * @throws IOException If an I/O Exception occurs.
+   */
+  @Override
+  public void close() throws IOException {
+    if(closed) return;
+    closed = true;
+    try {
+      ctx.end();
+    } finally {
+      ch.close();
+    }
+  }
+
+}
@@ -0,0 +1,36 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.nio.file.Path;
+
+/**
+ * Creates a handler per file when multiple files are read concurrently and
+ * merges the handlers of the finished files.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @param <H> The type of the handlers.
+ * @see CSVReader#readFiles(java.util.List, java.nio.charset.Charset,
+ *      CSVHandlerFactory)
+ */
+public interface CSVHandlerFactory<H extends CSVHandler> {
+
+  /**
+   * Creates the handler for a file. This method may be called concurrently.
+   * 
+   * @param file The file.
+   * @return The handler.
+   */
+  H create(Path file);
+
+  /**
+   * Is called after a file has been read completely. The calls happen on the
+   * thread that started the reading and in the order of the files.
+   * 
+   * @param file The file.
+   * @param handler The handler of the file.
+   */
+  void merge(Path file, H handler);
+
+}
@@ -0,0 +1,730 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sparse index of the rows of a csv file. The index stores the byte offset
+ * of every row whose index is a multiple of a given step. Finding a row then
+ * only needs to scan the rows from the closest stored row before it. The
+ * offsets are found by the same state machine that reads the file so strings
+ * spanning multiple lines are respected. An index is built by
+ * {@link CSVReader#index(Path, Charset, int)} and can be stored next to the
+ * file by {@link #write(Path)}. It stays valid as long as the file is only
+ * appended to. Rows that were appended after building the index are found
+ * by scanning from the last stored row. Using an index of a file that got
+ * shorter or whose rows were moved fails with an {@link IOException}.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVReader#read(Path, Charset, CSVIndex, int, int)
+ * @see CSVReader#cursor(Path, Charset, CSVIndex, int)
+ */
+public final class CSVIndex {
+
+  /** The version of the stored format. */
+  private static final int VERSION = 2;
+
+  /** The file name extension of index files. */
+  public static final String EXTENSION = ".idx";
+
+  /**
+   * A sink that can stop the tokenizer after a line.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private abstract static class Stop implements CSVSink {
+
+    /** The tokenizer. */
+    CSVByteTokenizer tok;
+
+    /** Whether the tokenizer was stopped. */
+    boolean stopped;
+
+    /**
+     * Creates a sink.
+     */
+    Stop() {
+      // nothing to do
+    }
+
+    /**
+     * Stops the tokenizer after the current line.
+     */
+    void stop() {
+      stopped = true;
+      tok.pause();
+    }
+
+  }
+
+  /**
+   * Counts rows without looking at the content of the cells. Only the column
+   * titles are read when the scan starts at the beginning of the file.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Rows extends Stop {
+
+    /** Whether the next cell of the titles is the title of the row titles. */
+    private boolean corner;
+
+    /** The column titles that are read or <code>null</code>. */
+    private List<String> names;
+
+    /** The column titles or <code>null</code>. */
+    String[] titles;
+
+    /** The index of the row starting at the current position. */
+    int row;
+
+    /** The row index at which the tokenizer is stopped. */
+    int stopAt;
+
+    /** Whether the current row has cells. */
+    boolean pending;
+
+    /** The position of the current row after a scan. */
+    long pos;
+
+    /**
+     * Creates a row counter.
+     * 
+     * @param row The index of the row starting at the current position.
+     * @param titles Whether the column titles start at the current position.
+     * @param rowTitle Whether there are row titles.
+     */
+    Rows(final int row, final boolean titles, final boolean rowTitle) {
+      this.row = row;
+      corner = titles && rowTitle;
+      names = titles ? new ArrayList<String>() : null;
+      stopAt = -1;
+    }
+
+    @Override
+    public boolean cell(final char[] buf, final int off, final int len) {
+      pending = true;
+      if(names == null) return false;
+      if(corner) {
+        corner = false;
+      } else {
+        names.add(new String(buf, off, len));
+      }
+      return true;
+    }
+
+    @Override
+    public boolean skipped() {
+      pending = true;
+      corner = false;
+      return names != null;
+    }
+
+    @Override
+    public boolean line() {
+      pending = false;
+      if(names != null) {
+        titles = names.toArray(new String[names.size()]);
+        names = null;
+      } else {
+        ++row;
+      }
+      if(row == stopAt) {
+        stop();
+      }
+      return false;
+    }
+
+    /**
+     * Signals the end of the input. Column titles without a line break after
+     * them are complete afterwards.
+     */
+    void finish() {
+      tok.finish();
+      if(names != null) {
+        titles = names.toArray(new String[names.size()]);
+        names = null;
+        pending = false;
+      }
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The number of rows after the end of the input.
+     */
+    int total() {
+      return pending && names == null ? row + 1 : row;
+    }
+
+  }
+
+  /**
+   * Passes the cells to a context until a given row is reached.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Range extends Stop {
+
+    /** The context. */
+    private final CSVReader.Context ctx;
+
+    /** The row index at which the tokenizer is stopped. */
+    private final int end;
+
+    /**
+     * Creates a range.
+     * 
+     * @param ctx The context.
+     * @param end The row index at which the tokenizer is stopped.
+     */
+    Range(final CSVReader.Context ctx, final int end) {
+      this.ctx = ctx;
+      this.end = end;
+    }
+
+    @Override
+    public boolean cell(final char[] buf, final int off, final int len) {
+      return ctx.cell(buf, off, len);
+    }
+
+    @Override
+    public boolean skipped() {
+      return ctx.skipped();
+    }
+
+    @Override
+    public boolean line() {
+      final boolean capture = ctx.line();
+      if(ctx.row() >= end || ctx.stopped()) {
+        stop();
+      }
+      return capture;
+    }
+
+  }
+
+  /**
+   * Reads a file in blocks and passes them to the tokenizer of a sink.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Input {
+
+    /** The file. */
+    private final FileChannel ch;
+
+    /** The size of the file when the input was created. */
+    private final long size;
+
+    /** The buffer. */
+    private final ByteBuffer buf;
+
+    /** The position of the buffer in the file. */
+    private long pos;
+
+    /** The next byte in the buffer. */
+    private int off;
+
+    /** The number of valid bytes in the buffer. */
+    private int len;
+
+    /** The position of the first line break or <code>-1</code>. */
+    long lineAt;
+
+    /**
+     * Creates an input.
+     * 
+     * @param ch The file.
+     * @param from The first byte to read.
+     * @throws IOException If an I/O Exception occurs.
+     */
+    Input(final FileChannel ch, final long from) throws IOException {
+      this.ch = ch;
+      size = ch.size();
+      buf = ByteBuffer.allocateDirect(CSVReader.BUFFER_SIZE);
+      pos = from;
+      lineAt = -1L;
+    }
+
+    /**
+     * Passes bytes to the tokenizer of the sink until it is stopped.
+     * 
+     * @param sink The sink.
+     * @return The position after the line where the tokenizer was stopped or
+     *         <code>-1</code> if the end of the file was reached.
+     * @throws IOException If an I/O Exception occurs.
+     */
+    long feed(final Stop sink) throws IOException {
+      for(;;) {
+        while(off < len) {
+          final int start = off;
+          final boolean known = sink.tok.line() != 0x0;
+          off = sink.tok.feed(buf, off, len);
+          if(!known && sink.tok.line() != 0x0) {
+            lineAt = pos + CSVRowScanner.findLine(buf, start, off);
+          }
+          if(sink.stopped) {
+            sink.stopped = false;
+            return pos + off;
+          }
+        }
+        pos += len;
+        off = 0;
+        len = 0;
+        if(pos >= size) return -1L;
+        buf.clear();
+        if(size - pos < buf.capacity()) {
+          buf.limit((int) (size - pos));
+        }
+        final int n = ch.read(buf, pos);
+        if(n <= 0) return -1L;
+        len = n;
+      }
+    }
+
+  }
+
+  /** The cell delimiter. */
+  private final char delimiter;
+
+  /** The string delimiter. */
+  private final char string;
+
+  /** Whether the file has column titles. */
+  private final boolean colTitle;
+
+  /** Whether the file has row titles. */
+  private final boolean rowTitle;
+
+  /** The line break of the file or <code>0x0</code>. */
+  private final byte line;
+
+  /**
+   * The offset of the first line break of the file or <code>-1</code>. Before
+   * it a zero byte ends a row as well.
+   */
+  private final long lineAt;
+
+  /** The number of rows between stored offsets. */
+  private final int step;
+
+  /** The size of the file. */
+  private final long size;
+
+  /** The number of rows of the file. */
+  private final int rows;
+
+  /** The column titles or <code>null</code>. */
+  private final String[] colNames;
+
+  /** The offset of every row whose index is a multiple of the step. */
+  private final long[] offsets;
+
+  /**
+   * Creates an index.
+   * 
+   * @param delimiter The cell delimiter.
+   * @param string The string delimiter.
+   * @param colTitle Whether the file has column titles.
+   * @param rowTitle Whether the file has row titles.
+   * @param line The line break of the file or <code>0x0</code>.
+   * @param lineAt The offset of the first line break of the file or
+   *          <code>-1</code>.
+   * @param step The number of rows between stored offsets.
+   * @param size The size of the file.
+   * @param rows The number of rows of the file.
+   * @param colNames The column titles or <code>null</code>.
+   * @param offsets The offset of every row whose index is a multiple of the
+   *          step.
+   */
+  private CSVIndex(final char delimiter, final char string,
+      final boolean colTitle, final boolean rowTitle, final byte line,
+      final long lineAt, final int step, final long size, final int rows,
+      final String[] colNames, final long[] offsets) {
+    this.delimiter = delimiter;
+    this.string = string;
+    this.colTitle = colTitle;
+    this.rowTitle = rowTitle;
+    this.line = line;
+    this.lineAt = lineAt;
+    this.step = step;
+    this.size = size;
+    this.rows = rows;
+    this.colNames = colNames;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Builds the index of a file.
+   * 
+   * @param reader The reader providing the configuration.
+   * @param ch The file.
+   * @param cs The charset of the file which must be supported by
+   *          {@link CSVByteTokenizer}.
+   * @param step The number of rows between stored offsets.
+   * @return The index.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  static CSVIndex build(final CSVReader reader, final FileChannel ch,
+      final Charset cs, final int step) throws IOException {
+    final boolean colTitle = reader.readColTitles();
+    final Rows sink = new Rows(0, colTitle, reader.readRowTitles());
+    sink.tok = reader.tokenizer(sink, cs);
+    final Input in = new Input(ch, 0L);
+    long[] offsets = new long[16];
+    int count = 0;
+    if(!colTitle) {
+      offsets[count++] = 0L;
+    }
+    sink.stopAt = colTitle ? 0 : step;
+    long pos;
+    while((pos = in.feed(sink)) >= 0) {
+      if(count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      offsets[count++] = pos;
+      sink.stopAt = sink.row + step;
+    }
+    sink.finish();
+    return new CSVIndex(reader.delimiter(), reader.string(), colTitle,
+        reader.readRowTitles(), sink.tok.line(), in.lineAt, step, in.size,
+        sink.total(), sink.titles, Arrays.copyOf(offsets, count));
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of rows between stored offsets.
+   */
+  public int step() {
+    return step;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The size of the file when the index was built.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of rows of the file when the index was built not
+   *         counting the column titles.
+   */
+  public int rows() {
+    return rows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The column titles or <code>null</code> if there are none.
+   */
+  public String[] colNames() {
+    return colNames != null ? colNames.clone() : null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The index of the row.
+   * @return The offset of the closest stored row before or at the given row
+   *         or <code>-1</code> if there is none.
+   */
+  public long offset(final int row) {
+    if(row < 0 || offsets.length == 0) return -1L;
+    return offsets[Math.min(row / step, offsets.length - 1)];
+  }
+
+  /**
+   * Ensures that the index was built for the given file and configuration.
+   * 
+   * @param reader The reader.
+   * @param ch The file.
+   * @throws IOException If the file is shorter than when the index was
+   *           built.
+   */
+  void check(final CSVReader reader, final FileChannel ch)
+      throws IOException {
+    if(reader.delimiter() != delimiter || reader.string() != string
+        || reader.readColTitles() != colTitle
+        || reader.readRowTitles() != rowTitle) {
+      throw new IllegalArgumentException(
+          "index was built with a different configuration");
+    }
+    if(ch.size() < size) throw new IOException(
+        "file is shorter than when the index was built");
+  }
+
+  /**
+   * Scans for the beginning of a row.
+   * 
+   * @param reader The reader.
+   * @param ch The file.
+   * @param cs The charset of the file.
+   * @param row The index of the row.
+   * @return The row counter after the scan. Its row is the given row unless
+   *         the file has fewer rows.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  private Rows find(final CSVReader reader, final FileChannel ch,
+      final Charset cs, final int row) throws IOException {
+    final int k = Math.min(row / step, offsets.length - 1);
+    final Rows sink;
+    final long from;
+    if(k < 0) {
+      // no stored rows so the file has to be read from the beginning
+      sink = new Rows(0, colTitle, rowTitle);
+      from = 0L;
+    } else {
+      sink = new Rows(k * step, false, rowTitle);
+      sink.titles = colNames;
+      from = offsets[k];
+      if(from > 0) {
+        verify(ch, from);
+      }
+    }
+    sink.tok = reader.tokenizer(sink, cs);
+    if(lineKnown(from)) {
+      sink.tok.resume(line);
+    }
+    sink.stopAt = row;
+    sink.pos = from;
+    if(sink.row != row || k < 0 && colTitle) {
+      final long pos = new Input(ch, from).feed(sink);
+      if(pos < 0) {
+        sink.finish();
+      }
+      sink.pos = pos >= 0 ? pos : ch.size();
+    }
+    return sink;
+  }
+
+  /**
+   * Whether the line break of the file is known at a stored offset.
+   * 
+   * @param offset The offset of a stored row.
+   * @return Whether the first line break of the file is before the offset.
+   */
+  private boolean lineKnown(final long offset) {
+    return lineAt >= 0 && offset > lineAt;
+  }
+
+  /**
+   * Ensures that a stored row still starts at its offset. This detects files
+   * that were rewritten after building the index without getting shorter.
+   * 
+   * @param ch The file.
+   * @param offset The offset of a stored row which is not the first byte.
+   * @throws IOException If the byte before the offset does not end a row.
+   */
+  private void verify(final FileChannel ch, final long offset)
+      throws IOException {
+    final ByteBuffer b = ByteBuffer.allocate(1);
+    final byte end = lineKnown(offset) ? line : 0x0;
+    if(ch.read(b, offset - 1) != 1 || b.get(0) != end) throw new IOException(
+        "file has changed since the index was built");
+  }
+
+  /**
+   * Reads a range of rows. The index must have been checked.
+   * 
+   * @param reader The reader.
+   * @param ctx The context that was just started.
+   * @param ch The file.
+   * @param cs The charset of the file.
+   * @param from The index of the first row.
+   * @param count The maximal number of rows.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  void read(final CSVReader reader, final CSVReader.Context ctx,
+      final FileChannel ch, final Charset cs, final int from, final int count)
+      throws IOException {
+    final Rows pos = find(reader, ch, cs, from);
+    if(pos.titles != null) {
+      ctx.titles(pos.titles);
+    }
+    if(pos.row != from || count <= 0) return;
+    final Range sink = new Range(ctx, from + count);
+    sink.tok = reader.tokenizer(sink, cs);
+    if(pos.tok.line() != 0x0) {
+      sink.tok.resume(pos.tok.line());
+    }
+    ctx.seek(from);
+    if(new Input(ch, pos.pos).feed(sink) < 0) {
+      sink.tok.finish();
+    }
+  }
+
+  /**
+   * Opens a cursor at a row.
+   * 
+   * @param reader The reader.
+   * @param ch The file which is closed with the cursor.
+   * @param cs The charset of the file.
+   * @param from The index of the first row.
+   * @return The cursor.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  CSVCursor cursor(final CSVReader reader, final FileChannel ch,
+      final Charset cs, final int from) throws IOException {
+    check(reader, ch);
+    final Rows pos = find(reader, ch, cs, from);
+    ch.position(pos.pos);
+    final CSVCursor cur = new CSVCursor(reader, Channels.newInputStream(ch),
+        cs);
+    cur.resume(pos.tok.line(), pos.row, pos.titles);
+    return cur;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param file The csv file.
+   * @return The path of the index file next to it.
+   */
+  public static Path sidecar(final Path file) {
+    return file.resolveSibling(file.getFileName() + EXTENSION);
+  }
+
+  /**
+   * Stores the index in a file.
+   * 
+   * @param file The index file.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #sidecar(Path)
+   */
+  public void write(final Path file) throws IOException {
+    final OutputStream out = new BufferedOutputStream(
+        Files.newOutputStream(file));
+    try {
+      final DataOutputStream data = new DataOutputStream(out);
+      write(data);
+      data.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Stores the index.
+   * 
+   * @param out The output.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #read(DataInput)
+   */
+  public void write(final DataOutput out) throws IOException {
+    out.writeInt(VERSION);
+    out.writeChar(delimiter);
+    out.writeChar(string);
+    out.writeBoolean(colTitle);
+    out.writeBoolean(rowTitle);
+    out.writeByte(line);
+    out.writeLong(lineAt);
+    out.writeInt(step);
+    out.writeLong(size);
+    out.writeInt(rows);
+    if(colNames == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(colNames.length);
+      for(final String name : colNames) {
+        out.writeUTF(name);
+      }
+    }
+    out.writeInt(offsets.length);
+    for(final long o : offsets) {
+      out.writeLong(o);
+    }
+  }
+
+  /**
+   * Loads an index from a file.
+   * 
+   * @param file The index file.
+   * @return The index.
+   * @throws IOException If an I/O Exception occurs or the file is no index.
+   * @see #sidecar(Path)
+   */
+  public static CSVIndex read(final Path file) throws IOException {
+    final InputStream in = new BufferedInputStream(Files.newInputStream(file));
+    try {
+      return read(new DataInputStream(in));
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Loads an index.
+   * 
+   * @param in The input.
+   * @return The index.
+   * @throws IOException If an I/O Exception occurs or the input is no index.
+   * @see #write(DataOutput)
+   */
+  public static CSVIndex read(final DataInput in) throws IOException {
+    final int version = in.readInt();
+    if(version != VERSION) throw new IOException("unknown index version "
+        + version);
+    final char delimiter = in.readChar();
+    final char string = in.readChar();
+    final boolean colTitle = in.readBoolean();
+    final boolean rowTitle = in.readBoolean();
+    final byte line = in.readByte();
+    final long lineAt = in.readLong();
+    final int step = in.readInt();
+    final long size = in.readLong();
+    final int rows = in.readInt();
+    final int cols = in.readInt();
+    if(step <= 0 || size < 0 || rows < 0 || cols < -1 || lineAt < -1
+        || lineAt >= size) throw new IOException("invalid index");
+    String[] colNames = null;
+    if(cols >= 0) {
+      colNames = new String[cols];
+      for(int i = 0; i < cols; ++i) {
+        colNames[i] = in.readUTF();
+      }
+    }
+    final int count = in.readInt();
+    if(count < 0 || count > rows / step + 1) throw new IOException(
+        "invalid index");
+    final long[] offsets = new long[count];
+    for(int i = 0; i < count; ++i) {
+      offsets[i] = in.readLong();
+      if(offsets[i] < 0 || offsets[i] > size) throw new IOException(
+          "invalid index");
+    }
+    return new CSVIndex(delimiter, string, colTitle, rowTitle, line, lineAt,
+        step, size, rows, colNames, offsets);
+  }
+
+  @Override
+  public String toString() {
+    return "index[" + rows + " rows, every " + step + "]";
+  }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * An empty csv number handler adapter. Ignores every event.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public class CSVNumberAdapter extends CSVAdapter implements CSVNumberHandler {
+
+  @Override
+  public void cellLong(final CSVContext ctx, final long content) {
+    // nothing to do
+  }
+
+  @Override
+  public void cellDouble(final CSVContext ctx, final double content) {
+    // nothing to do
+  }
+
+}
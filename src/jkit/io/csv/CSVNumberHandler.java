@@ -0,0 +1,34 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * A csv handler that receives the content of numeric columns as numbers. The
+ * numeric columns are declared by {@link CSVReader#setLongColumns(int...)} and
+ * {@link CSVReader#setDoubleColumns(int...)}. The numbers are parsed directly
+ * from the buffer of the reader. Cells of numeric columns that do not contain
+ * a valid number (e.g. empty cells) are passed as ordinary cells.
+ * {@link CSVNumberAdapter} can be used as adapter class.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public interface CSVNumberHandler extends CSVHandler {
+
+  /**
+   * Is called on every cell of a long column that contains a valid long.
+   * 
+   * @param ctx The context.
+   * @param content The content of the current cell.
+   */
+  void cellLong(CSVContext ctx, long content);
+
+  /**
+   * Is called on every cell of a double column that contains a valid double.
+   * 
+   * @param ctx The context.
+   * @param content The content of the current cell.
+   */
+  void cellDouble(CSVContext ctx, double content);
+
+}
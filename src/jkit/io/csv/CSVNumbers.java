@@ -0,0 +1,219 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * Parses numbers directly from character buffers. The parser is reusable and
+ * does not create objects for common inputs. The result of the last
+ * successful parse can be obtained by {@link #longValue()} or
+ * {@link #doubleValue()}.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVNumbers {
+
+  /** The powers of ten that can be represented exactly as double. */
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  /** The largest integer that can be represented exactly as double. */
+  private static final long MAX_EXACT = 1L << 53;
+
+  /** The maximal number of digits that always fit into a long. */
+  private static final int MAX_DIGITS = 18;
+
+  /** The last parsed long. */
+  private long l;
+
+  /** The last parsed double. */
+  private double d;
+
+  /**
+   * Getter.
+   * 
+   * @return The result of the last successful call to
+   *         {@link #parseLong(char[], int, int)}.
+   */
+  public long longValue() {
+    return l;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The result of the last successful call to
+   *         {@link #parseDouble(char[], int, int)}.
+   */
+  public double doubleValue() {
+    return d;
+  }
+
+  /**
+   * Parses a long the same way as {@link Long#parseLong(String)}.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return Whether the content is a valid long.
+   */
+  public boolean parseLong(final char[] buf, final int off, final int len) {
+    if(len <= 0) return false;
+    final int end = off + len;
+    int i = off;
+    boolean neg = false;
+    long limit = -Long.MAX_VALUE;
+    final char first = buf[i];
+    if(first == '-' || first == '+') {
+      if(len == 1) return false;
+      if(first == '-') {
+        neg = true;
+        limit = Long.MIN_VALUE;
+      }
+      ++i;
+    }
+    // accumulate negatively to be able to represent the minimum
+    final long minPrev = limit / 10;
+    long res = 0;
+    while(i < end) {
+      final int digit = buf[i++] - '0';
+      if(digit < 0 || digit > 9) return false;
+      if(res < minPrev) return false;
+      res *= 10;
+      if(res < limit + digit) return false;
+      res -= digit;
+    }
+    l = neg ? res : -res;
+    return true;
+  }
+
+  /**
+   * Parses a double the same way as {@link Double#parseDouble(String)}.
+   * Decimal numbers with few digits are computed directly and exactly. All
+   * other inputs are passed to {@link Double#parseDouble(String)}.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return Whether the content is a valid double.
+   */
+  public boolean parseDouble(final char[] buf, final int off, final int len) {
+    if(fastDouble(buf, off, len)) return true;
+    if(!maybeDouble(buf, off, len)) return false;
+    try {
+      d = Double.parseDouble(new String(buf, off, len));
+      return true;
+    } catch(final NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Whether the content can be a double according to its first character
+   * that is not white space. This avoids the exception of
+   * {@link Double#parseDouble(String)} for most texts.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return Whether the content may be a valid double.
+   */
+  private static boolean maybeDouble(final char[] buf, final int off,
+      final int len) {
+    final int end = off + len;
+    int i = off;
+    while(i < end && buf[i] <= ' ') {
+      ++i;
+    }
+    if(i == end) return false;
+    final char c = buf[i];
+    return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.'
+        || c == 'I' || c == 'N';
+  }
+
+  /**
+   * Parses simple decimal numbers. The result is exact if the mantissa and the
+   * power of ten can both be represented exactly as double.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return Whether the number could be parsed.
+   */
+  private boolean fastDouble(final char[] buf, final int off, final int len) {
+    final int end = off + len;
+    int i = off;
+    boolean neg = false;
+    if(i < end && (buf[i] == '-' || buf[i] == '+')) {
+      neg = buf[i] == '-';
+      ++i;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exp = 0;
+    boolean any = false;
+    while(i < end) {
+      final int digit = buf[i] - '0';
+      if(digit < 0 || digit > 9) {
+        break;
+      }
+      any = true;
+      if(mantissa != 0 || digit != 0) {
+        if(++digits > MAX_DIGITS) return false;
+        mantissa = mantissa * 10 + digit;
+      }
+      ++i;
+    }
+    if(i < end && buf[i] == '.') {
+      ++i;
+      while(i < end) {
+        final int digit = buf[i] - '0';
+        if(digit < 0 || digit > 9) {
+          break;
+        }
+        any = true;
+        if(mantissa != 0 || digit != 0) {
+          if(++digits > MAX_DIGITS) return false;
+          mantissa = mantissa * 10 + digit;
+        }
+        --exp;
+        ++i;
+      }
+    }
+    if(!any) return false;
+    if(i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+      ++i;
+      boolean negExp = false;
+      if(i < end && (buf[i] == '-' || buf[i] == '+')) {
+        negExp = buf[i] == '-';
+        ++i;
+      }
+      if(i == end) return false;
+      int e = 0;
+      while(i < end) {
+        final int digit = buf[i] - '0';
+        if(digit < 0 || digit > 9) return false;
+        if(e > 1000) return false;
+        e = e * 10 + digit;
+        ++i;
+      }
+      exp += negExp ? -e : e;
+    }
+    if(i != end) return false;
+    if(mantissa > MAX_EXACT) return false;
+    double res = mantissa;
+    if(mantissa != 0) {
+      if(exp < 0) {
+        if(-exp >= POW10.length) return false;
+        res /= POW10[-exp];
+      } else if(exp > 0) {
+        if(exp >= POW10.length) return false;
+        res *= POW10[exp];
+      }
+    }
+    d = neg ? -res : res;
+    return true;
+  }
+
+}
@@ -0,0 +1,566 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import jkit.io.csv.CSVReader.Context;
+
+/**
+ * Reads a file in parallel. The file is divided into chunks of equal size
+ * that are scanned for row ends concurrently. Since the scan follows every
+ * possible state at the beginning of a chunk the actual row ends can be
+ * determined afterwards by passing the final states from chunk to chunk. The
+ * rows between those row ends are then parsed concurrently and the results
+ * are passed to the handler by the calling thread.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVParallel {
+
+  /** The size of the chunks. */
+  static final long CHUNK_SIZE = 1L << 22;
+
+  /** The number of bytes that are mapped at once while scanning. */
+  private static final long MAP_SIZE = 1L << 26;
+
+  /**
+   * A range of complete rows.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  static final class Segment {
+
+    /** The first byte. */
+    final long from;
+
+    /** The end (exclusive). */
+    final long to;
+
+    /** The index of the first row. */
+    final int row;
+
+    /** Whether this is the last segment of the file. */
+    final boolean last;
+
+    /** The parsed rows. */
+    CSVRowBatch batch;
+
+    /**
+     * Creates a segment.
+     * 
+     * @param from The first byte.
+     * @param to The end (exclusive).
+     * @param row The index of the first row.
+     * @param last Whether this is the last segment of the file.
+     */
+    Segment(final long from, final long to, final int row, final boolean last) {
+      this.from = from;
+      this.to = to;
+      this.row = row;
+      this.last = last;
+    }
+
+  }
+
+  /**
+   * Determines the segments from the scan results of consecutive chunks.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private final class Composer {
+
+    /** The index of the first row. */
+    private final int base;
+
+    /** The state at the beginning of the next chunk. */
+    private int state;
+
+    /** The number of row ends before the next chunk. */
+    private long rows;
+
+    /** The first byte of the current segment. */
+    private long segFrom;
+
+    /** The index of the first row of the current segment. */
+    private int segRow;
+
+    /** The index of the next chunk. */
+    private int k;
+
+    /**
+     * Creates a composer.
+     * 
+     * @param base The index of the first row.
+     */
+    Composer(final int base) {
+      this.base = base;
+      state = CSVRowScanner.CELL;
+      segFrom = begin;
+      segRow = base;
+    }
+
+    /**
+     * Passes on the scan result of the next chunk.
+     * 
+     * @param res The result.
+     * @return The segment ending in the chunk or <code>null</code>.
+     */
+    Segment next(final CSVRowScanner.Result res) {
+      Segment seg = null;
+      if(k++ > 0 && res.first[state] >= 0) {
+        seg = new Segment(segFrom, res.first[state], segRow, false);
+        segFrom = seg.to;
+        segRow = base + (int) rows + 1;
+      }
+      rows += res.rows[state];
+      state = res.end(state);
+      return seg;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The last segment after all chunks have been passed.
+     */
+    Segment last() {
+      return new Segment(segFrom, size, segRow, true);
+    }
+
+  }
+
+  /** The file. */
+  private final FileChannel ch;
+
+  /** The charset of the file. */
+  private final Charset cs;
+
+  /** The cell delimiter. */
+  private final char delimiter;
+
+  /** The string delimiter. */
+  private final char string;
+
+  /** The executor for scanning and parsing. */
+  private final ExecutorService pool;
+
+  /** The maximal number of chunks that are processed at once. */
+  private final int window;
+
+  /** The first byte to read. */
+  private final long begin;
+
+  /** The end of the file. */
+  private final long size;
+
+  /** The position of the first line break or <code>-1</code>. */
+  private long firstLine;
+
+  /** The line break of the file. */
+  private byte line;
+
+  /** The scanner. */
+  private CSVRowScanner scanner;
+
+  /**
+   * Creates a parallel reader for the file starting at the current position.
+   * 
+   * @param ch The file.
+   * @param cs The charset which must be supported by {@link CSVByteTokenizer}.
+   * @param delimiter The cell delimiter.
+   * @param string The string delimiter.
+   * @param pool The executor for scanning and parsing.
+   * @param window The maximal number of chunks that are processed at once.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public CSVParallel(final FileChannel ch, final Charset cs,
+      final char delimiter, final char string, final ExecutorService pool,
+      final int window) throws IOException {
+    this.ch = ch;
+    this.cs = cs;
+    this.delimiter = delimiter;
+    this.string = string;
+    this.pool = pool;
+    this.window = Math.max(window, 1);
+    begin = ch.position();
+    size = ch.size();
+    firstLine = -1L;
+  }
+
+  /**
+   * Searches for the first line break of the file. The file can only be read
+   * in parallel when there is a line break.
+   * 
+   * @return Whether the file can be read in parallel.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public boolean prepare() throws IOException {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) return false;
+    if(!isPlain(delimiter) || !isPlain(string)) return false;
+    if(delimiter == string) return false;
+    if(size - begin <= CHUNK_SIZE) return false;
+    long pos = begin;
+    while(pos < size) {
+      final long len = Math.min(MAP_SIZE, size - pos);
+      final MappedByteBuffer buf = ch.map(MapMode.READ_ONLY, pos, len);
+      final int i = CSVRowScanner.findLine(buf, 0, (int) len);
+      if(i >= 0) {
+        firstLine = pos + i;
+        line = buf.get(i);
+        scanner = new CSVRowScanner(delimiter, string, line);
+        return true;
+      }
+      pos += len;
+    }
+    return false;
+  }
+
+  /**
+   * Whether a delimiter can be used for scanning.
+   * 
+   * @param c The delimiter.
+   * @return Whether the delimiter is no line break.
+   */
+  private static boolean isPlain(final char c) {
+    return c != 0x0 && c != '\r' && c != '\n';
+  }
+
+  /**
+   * Reads the file. The handler is only called by the current thread. When
+   * the handler stops reading the remaining segments are cancelled.
+   * 
+   * @param ctx The context that receives the rows.
+   * @param ordered Whether the rows have to be passed in the order of the
+   *          file. Otherwise the rows are passed as soon as they are parsed
+   *          but the rows of the first segment always come first.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void read(final Context ctx, final boolean ordered)
+      throws IOException {
+    if(scanner == null) throw new IllegalStateException("not prepared");
+    final Composer comp = new Composer(ctx.row());
+    final int chunks = chunks();
+    final Queue<Future<CSVRowScanner.Result>> scans =
+        new ArrayDeque<Future<CSVRowScanner.Result>>();
+    final List<Future<?>> running = new ArrayList<Future<?>>();
+    final Queue<Future<Segment>> queue = new ArrayDeque<Future<Segment>>();
+    final CompletionService<Segment> done =
+        new ExecutorCompletionService<Segment>(pool);
+    final List<Segment> waiting = new ArrayList<Segment>();
+    boolean first = true;
+    int pending = 0;
+    try {
+      int submitted = 0;
+      for(int k = 0; k < chunks; ++k) {
+        while(submitted < chunks && submitted < k + window) {
+          final Future<CSVRowScanner.Result> f = pool.submit(scan(submitted));
+          running.add(f);
+          scans.add(f);
+          ++submitted;
+        }
+        final Segment seg = comp.next(get(scans.poll()));
+        if(seg != null) {
+          final Future<Segment> f;
+          if(ordered) {
+            f = pool.submit(parse(seg));
+            queue.add(f);
+          } else {
+            f = done.submit(parse(seg));
+            ++pending;
+          }
+          running.add(f);
+        }
+        // pass on finished segments while scanning
+        if(ordered) {
+          while(!queue.isEmpty()
+              && (queue.peek().isDone() || queue.size() >= window)) {
+            deliver(ctx, get(queue.poll()));
+            if(ctx.stopped()) return;
+          }
+        } else {
+          Future<Segment> f;
+          while(pending > 0 && ((f = done.poll()) != null
+              || pending >= window)) {
+            if(f == null) {
+              f = take(done);
+            }
+            --pending;
+            first = deliverUnordered(ctx, get(f), first, waiting);
+            if(ctx.stopped()) return;
+          }
+        }
+        pruneDone(running);
+      }
+      final Segment seg = comp.last();
+      if(ordered) {
+        final Future<Segment> f = pool.submit(parse(seg));
+        running.add(f);
+        queue.add(f);
+        while(!queue.isEmpty() && !ctx.stopped()) {
+          deliver(ctx, get(queue.poll()));
+        }
+      } else {
+        running.add(done.submit(parse(seg)));
+        ++pending;
+        // the last segment is passed last so that the end is reported right
+        Segment tail = null;
+        while(pending > 0 && !ctx.stopped()) {
+          --pending;
+          final Segment s = get(take(done));
+          if(s.last && pending > 0) {
+            tail = s;
+          } else {
+            first = deliverUnordered(ctx, s, first, waiting);
+          }
+        }
+        if(tail != null && !ctx.stopped()) {
+          deliverUnordered(ctx, tail, first, waiting);
+        }
+      }
+    } finally {
+      for(final Future<?> f : running) {
+        f.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Splits the file into segments of complete rows. The chunks are scanned
+   * concurrently but no rows are parsed.
+   * 
+   * @param base The index of the first row.
+   * @return The segments in the order of the file.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public List<Segment> segments(final int base) throws IOException {
+    if(scanner == null) throw new IllegalStateException("not prepared");
+    final Composer comp = new Composer(base);
+    final int chunks = chunks();
+    final List<Segment> res = new ArrayList<Segment>();
+    final Queue<Future<CSVRowScanner.Result>> scans =
+        new ArrayDeque<Future<CSVRowScanner.Result>>();
+    try {
+      int submitted = 0;
+      for(int k = 0; k < chunks; ++k) {
+        while(submitted < chunks && submitted < k + window) {
+          scans.add(pool.submit(scan(submitted)));
+          ++submitted;
+        }
+        final Segment seg = comp.next(get(scans.poll()));
+        if(seg != null) {
+          res.add(seg);
+        }
+      }
+    } finally {
+      for(final Future<?> f : scans) {
+        f.cancel(true);
+      }
+    }
+    res.add(comp.last());
+    return res;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The line break of the file.
+   */
+  public byte line() {
+    return line;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The end of the first chunk.
+   */
+  private long firstEnd() {
+    return Math.min(size, Math.max(begin + CHUNK_SIZE, firstLine + 1));
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of chunks.
+   */
+  private int chunks() {
+    return 1 + (int) ((size - firstEnd() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+  }
+
+  /**
+   * Removes finished futures from the list.
+   * 
+   * @param running The list.
+   */
+  private static void pruneDone(final List<Future<?>> running) {
+    int j = 0;
+    for(int i = 0; i < running.size(); ++i) {
+      final Future<?> f = running.get(i);
+      if(!f.isDone()) {
+        running.set(j++, f);
+      }
+    }
+    running.subList(j, running.size()).clear();
+  }
+
+  /**
+   * Passes the rows of a segment to the context.
+   * 
+   * @param ctx The context.
+   * @param seg The segment.
+   */
+  private static void deliver(final Context ctx, final Segment seg) {
+    ctx.seek(seg.row);
+    seg.batch.replay(ctx);
+    seg.batch = null;
+  }
+
+  /**
+   * Passes the rows of a segment to the context as long as the first segment
+   * was passed already.
+   * 
+   * @param ctx The context.
+   * @param seg The segment.
+   * @param first Whether the first segment is still expected.
+   * @param waiting The segments waiting for the first segment.
+   * @return Whether the first segment is still expected.
+   */
+  private boolean deliverUnordered(final Context ctx, final Segment seg,
+      final boolean first, final List<Segment> waiting) {
+    if(!first) {
+      deliver(ctx, seg);
+      return false;
+    }
+    if(seg.from != begin) {
+      waiting.add(seg);
+      return true;
+    }
+    deliver(ctx, seg);
+    for(final Segment s : waiting) {
+      deliver(ctx, s);
+    }
+    waiting.clear();
+    return false;
+  }
+
+  /**
+   * Creates a task that scans a chunk.
+   * 
+   * @param chunk The index of the chunk.
+   * @return The task.
+   */
+  private Callable<CSVRowScanner.Result> scan(final int chunk) {
+    final long firstEnd = firstEnd();
+    final long from = chunk == 0 ? begin : firstEnd + (chunk - 1) * CHUNK_SIZE;
+    final long to = chunk == 0 ? firstEnd : Math.min(size, from + CHUNK_SIZE);
+    return new Callable<CSVRowScanner.Result>() {
+
+      @Override
+      public CSVRowScanner.Result call() throws Exception {
+        final CSVRowScanner.Result res = new CSVRowScanner.Result();
+        long pos = from;
+        while(pos < to) {
+          final int len = (int) Math.min(MAP_SIZE, to - pos);
+          final MappedByteBuffer buf = ch.map(MapMode.READ_ONLY, pos, len);
+          int i = 0;
+          if(pos <= firstLine) {
+            // the chunk contains the first line break
+            i = (int) Math.min(len, firstLine - pos);
+            scanner.scan(res, buf, pos, 0, i, false);
+          }
+          scanner.scan(res, buf, pos, i, len, true);
+          pos += len;
+        }
+        return res;
+      }
+
+    };
+  }
+
+  /**
+   * Creates a task that parses a segment.
+   * 
+   * @param seg The segment.
+   * @return The task.
+   */
+  private Callable<Segment> parse(final Segment seg) {
+    return new Callable<Segment>() {
+
+      @Override
+      public Segment call() throws Exception {
+        final CSVRowBatch batch = new CSVRowBatch(
+            (int) Math.min(seg.to - seg.from, 2 * CHUNK_SIZE));
+        final CSVByteTokenizer tok = new CSVByteTokenizer(batch, delimiter,
+            string, cs);
+        if(seg.from != begin) {
+          tok.resume(line);
+        }
+        tok.feed(ch, seg.from, seg.to);
+        if(seg.last) {
+          tok.finish();
+        }
+        seg.batch = batch;
+        return seg;
+      }
+
+    };
+  }
+
+  /**
+   * Waits for the next finished task.
+   * 
+   * @param done The completion service.
+   * @return The finished task.
+   * @throws IOException If the thread was interrupted.
+   */
+  private static Future<Segment> take(final CompletionService<Segment> done)
+      throws IOException {
+    try {
+      return done.take();
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Waits for the result of a task.
+   * 
+   * @param <T> The result type.
+   * @param f The task.
+   * @return The result.
+   * @throws IOException If the task threw an I/O Exception or the thread was
+   *           interrupted.
+   */
+  private static <T> T get(final Future<T> f) throws IOException {
+    try {
+      return f.get();
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch(final ExecutionException e) {
+      final Throwable t = e.getCause();
+      if(t instanceof IOException) throw (IOException) t;
+      if(t instanceof RuntimeException) throw (RuntimeException) t;
+      if(t instanceof Error) throw (Error) t;
+      throw new IOException(t);
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An immutable csv parser that can be shared by multiple threads. The parser
+ * has the configuration of the {@link CSVReader} it was created by and each
+ * call gets its own handler. All state of a call lives in its context. The
+ * read buffers are kept per thread and reused by later calls on the same
+ * thread. Every call reads with its own copy of the configuration so a
+ * handler changing the reader returned by {@link CSVContext#reader()} does
+ * not affect other calls.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVReader#parser()
+ */
+public final class CSVParser {
+
+  /** The configuration which is never changed. */
+  private final CSVReader config;
+
+  /**
+   * Creates a parser.
+   * 
+   * @param config The configuration which must not be changed afterwards.
+   */
+  CSVParser(final CSVReader config) {
+    this.config = config;
+  }
+
+  /**
+   * Parses from a reader like {@link CSVReader#read(Reader)}.
+   * 
+   * @param r The reader.
+   * @param hnd The handler.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void parse(final Reader r, final CSVHandler hnd) throws IOException {
+    final CSVReader reader = config.copy();
+    reader.read(r, reader.start(hnd));
+  }
+
+  /**
+   * Parses a string or any other character sequence like
+   * {@link CSVReader#read(CharSequence)}.
+   * 
+   * @param seq The character sequence.
+   * @param hnd The handler.
+   */
+  public void parse(final CharSequence seq, final CSVHandler hnd) {
+    final CSVReader reader = config.copy();
+    reader.read(seq, reader.start(hnd));
+  }
+
+  /**
+   * Parses from an input stream like
+   * {@link CSVReader#read(InputStream, Charset)}.
+   * 
+   * @param in The input stream.
+   * @param cs The charset of the input.
+   * @param hnd The handler.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void parse(final InputStream in, final Charset cs,
+      final CSVHandler hnd) throws IOException {
+    final CSVReader reader = config.copy();
+    reader.read(in, cs, reader.start(hnd));
+  }
+
+  /**
+   * Parses a file like {@link CSVReader#read(Path, Charset)}.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @param hnd The handler.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void parse(final Path path, final Charset cs, final CSVHandler hnd)
+      throws IOException {
+    final CSVReader reader = config.copy();
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      reader.read(ch, cs, reader.start(hnd));
+    } finally {
+      ch.close();
+    }
+  }
+
+  /**
+   * Creates a reader with the configuration of this parser. The reader can be
+   * changed without affecting this parser.
+   * 
+   * @return A new reader without handler.
+   */
+  public CSVReader reader() {
+    return config.copy();
+  }
+
+}
@@ -0,0 +1,360 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import jkit.io.csv.CSVReader.Context;
+
+/**
+ * Reads in three stages that run at the same time. The first stage reads and
+ * decodes the input into blocks, the second stage splits the blocks into
+ * batches of cells, and the third stage passes the batches to the handler.
+ * The stages are linked by bounded queues. Blocks and batches are recycled so
+ * the memory in use stays constant.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVPipeline {
+
+  /** The number of blocks and batches that are in use at once. */
+  private static final int DEPTH = 4;
+
+  /**
+   * A block of input.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Block {
+
+    /** The characters or <code>null</code> if the input consists of bytes. */
+    final char[] chars;
+
+    /** The bytes or <code>null</code> if the input consists of characters. */
+    final byte[] bytes;
+
+    /** The bytes as buffer. */
+    final ByteBuffer buf;
+
+    /** The number of used characters or bytes. */
+    int len;
+
+    /**
+     * Creates a block.
+     * 
+     * @param size The size.
+     * @param binary Whether the block holds bytes.
+     */
+    Block(final int size, final boolean binary) {
+      chars = binary ? null : new char[size];
+      bytes = binary ? new byte[size] : null;
+      buf = binary ? ByteBuffer.wrap(bytes) : null;
+    }
+
+  }
+
+  /**
+   * Passes cells to the current batch.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Target implements CSVSink {
+
+    /** The current batch. */
+    CSVRowBatch batch;
+
+    /**
+     * Creates a target.
+     */
+    Target() {
+      // nothing to do
+    }
+
+    @Override
+    public boolean cell(final char[] buf, final int off, final int len) {
+      return batch.cell(buf, off, len);
+    }
+
+    @Override
+    public boolean skipped() {
+      return batch.skipped();
+    }
+
+    @Override
+    public boolean line() {
+      return batch.line();
+    }
+
+  }
+
+  /** Marks the end of the blocks. */
+  private static final Block END_BLOCK = new Block(0, true);
+
+  /** Marks the end of the batches. */
+  private static final CSVRowBatch END_BATCH = new CSVRowBatch(0);
+
+  /** The reader or <code>null</code>. */
+  private final Reader r;
+
+  /** The input stream or <code>null</code>. */
+  private final InputStream in;
+
+  /** The pool running the first two stages. */
+  private final ExecutorService pool;
+
+  /** The tokenizer for characters or <code>null</code>. */
+  private final CSVTokenizer charTok;
+
+  /** The tokenizer for bytes or <code>null</code>. */
+  private final CSVByteTokenizer byteTok;
+
+  /** The sink of the tokenizer. */
+  private final Target target;
+
+  /** The blocks that can be filled. */
+  private final BlockingQueue<Block> freeBlocks;
+
+  /** The filled blocks. */
+  private final BlockingQueue<Block> fullBlocks;
+
+  /** The batches that can be filled. */
+  private final BlockingQueue<CSVRowBatch> freeBatches;
+
+  /** The filled batches. */
+  private final BlockingQueue<CSVRowBatch> fullBatches;
+
+  /** The first failure of a stage or <code>null</code>. */
+  private volatile Throwable failure;
+
+  /**
+   * Creates a pipeline for characters.
+   * 
+   * @param reader The csv reader.
+   * @param r The input.
+   * @param pool The pool running the first two stages.
+   */
+  public CSVPipeline(final CSVReader reader, final Reader r,
+      final ExecutorService pool) {
+    this(reader, r, null, null, pool);
+  }
+
+  /**
+   * Creates a pipeline for bytes. The charset must be supported as in
+   * {@link CSVByteTokenizer#supports(Charset, char, char)}.
+   * 
+   * @param reader The csv reader.
+   * @param in The input.
+   * @param cs The charset of the input.
+   * @param pool The pool running the first two stages.
+   */
+  public CSVPipeline(final CSVReader reader, final InputStream in,
+      final Charset cs, final ExecutorService pool) {
+    this(reader, null, in, cs, pool);
+  }
+
+  /**
+   * Creates a pipeline.
+   * 
+   * @param reader The csv reader.
+   * @param r The reader or <code>null</code>.
+   * @param in The input stream or <code>null</code>.
+   * @param cs The charset of the input stream or <code>null</code>.
+   * @param pool The pool running the first two stages.
+   */
+  private CSVPipeline(final CSVReader reader, final Reader r,
+      final InputStream in, final Charset cs, final ExecutorService pool) {
+    this.r = r;
+    this.in = in;
+    this.pool = pool;
+    target = new Target();
+    byteTok = in != null ? reader.tokenizer(target, cs) : null;
+    charTok = in == null ? reader.tokenizer(target) : null;
+    if(in != null && byteTok == null) throw new IllegalArgumentException(
+        "unsupported charset " + cs);
+    freeBlocks = new ArrayBlockingQueue<Block>(DEPTH);
+    fullBlocks = new ArrayBlockingQueue<Block>(DEPTH + 1);
+    freeBatches = new ArrayBlockingQueue<CSVRowBatch>(DEPTH);
+    fullBatches = new ArrayBlockingQueue<CSVRowBatch>(DEPTH + 1);
+    for(int i = 0; i < DEPTH; ++i) {
+      freeBlocks.add(new Block(CSVReader.BUFFER_SIZE, in != null));
+      freeBatches.add(new CSVRowBatch(CSVReader.BUFFER_SIZE));
+    }
+  }
+
+  /**
+   * Reads the whole input and passes it to the context. The current thread
+   * runs the last stage. When the handler stops reading the other stages are
+   * cancelled.
+   * 
+   * @param ctx The context.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void read(final Context ctx) throws IOException {
+    final Future<?> input = pool.submit(input());
+    final Future<?> tokens = pool.submit(tokens());
+    boolean done = false;
+    try {
+      for(;;) {
+        final CSVRowBatch batch = take(fullBatches);
+        if(batch == END_BATCH) {
+          break;
+        }
+        batch.replay(ctx);
+        freeBatches.add(batch);
+        if(ctx.stopped()) return;
+      }
+      final Throwable t = failure;
+      if(t != null) {
+        if(t instanceof IOException) throw (IOException) t;
+        if(t instanceof RuntimeException) throw (RuntimeException) t;
+        if(t instanceof Error) throw (Error) t;
+        throw new IOException(t);
+      }
+      get(input);
+      get(tokens);
+      done = true;
+    } finally {
+      if(!done) {
+        input.cancel(true);
+        tokens.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Creates the task that reads the input into blocks.
+   * 
+   * @return The task.
+   */
+  private Callable<Void> input() {
+    return new Callable<Void>() {
+
+      @Override
+      public Void call() throws Exception {
+        try {
+          for(;;) {
+            final Block b = freeBlocks.take();
+            b.len = in != null ? in.read(b.bytes) : r.read(b.chars);
+            if(b.len < 0) {
+              break;
+            }
+            fullBlocks.put(b);
+          }
+        } catch(final Throwable t) {
+          failure = t;
+        } finally {
+          fullBlocks.offer(END_BLOCK);
+        }
+        return null;
+      }
+
+    };
+  }
+
+  /**
+   * Creates the task that splits blocks into batches of cells.
+   * 
+   * @return The task.
+   */
+  private Callable<Void> tokens() {
+    return new Callable<Void>() {
+
+      @Override
+      public Void call() throws Exception {
+        try {
+          for(;;) {
+            final Block b = fullBlocks.take();
+            if(b == END_BLOCK) {
+              break;
+            }
+            final CSVRowBatch batch = next();
+            if(byteTok != null) {
+              byteTok.feed(b.buf, 0, b.len);
+            } else {
+              charTok.feed(b.chars, 0, b.len);
+            }
+            freeBlocks.put(b);
+            fullBatches.put(batch);
+          }
+          if(failure == null) {
+            final CSVRowBatch batch = next();
+            if(byteTok != null) {
+              byteTok.finish();
+            } else {
+              charTok.finish();
+            }
+            fullBatches.put(batch);
+          }
+        } catch(final Throwable t) {
+          if(failure == null) {
+            failure = t;
+          }
+        } finally {
+          fullBatches.offer(END_BATCH);
+        }
+        return null;
+      }
+
+    };
+  }
+
+  /**
+   * Makes an empty batch the target of the tokenizer.
+   * 
+   * @return The batch.
+   * @throws InterruptedException If the thread was interrupted.
+   */
+  private CSVRowBatch next() throws InterruptedException {
+    final CSVRowBatch batch = freeBatches.take();
+    batch.clear();
+    target.batch = batch;
+    return batch;
+  }
+
+  /**
+   * Waits for the next batch.
+   * 
+   * @param queue The queue.
+   * @return The batch.
+   * @throws IOException If the thread was interrupted.
+   */
+  private static CSVRowBatch take(final BlockingQueue<CSVRowBatch> queue)
+      throws IOException {
+    try {
+      return queue.take();
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Waits for a task to finish.
+   * 
+   * @param f The task.
+   * @throws IOException If the thread was interrupted.
+   */
+  private static void get(final Future<?> f) throws IOException {
+    try {
+      f.get();
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch(final ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+}
@@ -4,9 +4,33 @@
 package jkit.io.csv;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.LinkedList;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An easy to use csv reader. During the reading events are generated and passed
@@ -16,11 +40,67 @@ import java.util.List;
  */
 public class CSVReader {
 
-  private static final String NL = System.getProperty("line.separator");
+  /** The type of text columns. */
+  private static final byte TEXT = 0;
 
-  private final class Context implements CSVContext {
+  /** The type of long columns. */
+  private static final byte LONG = 1;
 
-    private final List<String> colNames;
+  /** The type of double columns. */
+  private static final byte DOUBLE = 2;
+
+  /** The number of characters or bytes that are read at once. */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  /** The unused character buffer of every thread. */
+  private static final ThreadLocal<char[]> CHARS = new ThreadLocal<char[]>();
+
+  /** The unused byte buffer of every thread. */
+  private static final ThreadLocal<byte[]> BYTES = new ThreadLocal<byte[]>();
+
+  final class Context implements CSVContext, CSVByteSink {
+
+    final CSVHandler hnd;
+
+    final CSVCharHandler chars;
+
+    final CSVChars view;
+
+    final CSVNumberHandler numbers;
+
+    final CSVNumbers parser;
+
+    final CSVBatchHandler batches;
+
+    private final CSVRowBatch batch;
+
+    private final int batchRows;
+
+    private final CSVFilter[] filters;
+
+    private final CSVRowBatch pending;
+
+    private CSVFilter[] byCol;
+
+    private int required;
+
+    private int passed;
+
+    private boolean replaying;
+
+    private final byte[] types;
+
+    private String[] colNames;
+
+    private int colCount;
+
+    private Map<String, Integer> colIndex;
+
+    private int indexed;
+
+    private final Set<String> keepNames;
+
+    private boolean[] keep;
 
     private final boolean hasRowNames;
 
@@ -30,16 +110,199 @@ public class CSVReader {
 
     private String rowName;
 
-    public Context(final boolean hasColNames, final boolean hasRowNames) {
+    private String[] indexNames;
+
+    private String rowIndexName;
+
+    private int rowIndexNameRow;
+
+    private char[] digits;
+
+    private CSVChars indexChars;
+
+    private final CSVStrings strings;
+
+    private boolean skip;
+
+    private boolean stopped;
+
+    private CSVTokenizer charTok;
+
+    private CSVByteTokenizer byteTok;
+
+    public Context(final CSVHandler hnd, final boolean hasColNames,
+        final boolean hasRowNames, final byte[] types, final boolean[] keep,
+        final Set<String> keepNames, final CSVStrings strings,
+        final int batchRows, final CSVFilter[] filters) {
+      this.hnd = hnd;
+      chars = hnd instanceof CSVCharHandler ? (CSVCharHandler) hnd : null;
+      view = new CSVChars();
+      numbers = hnd instanceof CSVNumberHandler ? (CSVNumberHandler) hnd
+          : null;
+      parser = numbers != null || filters != null ? new CSVNumbers() : null;
+      batches = hnd instanceof CSVBatchHandler ? (CSVBatchHandler) hnd
+          : null;
+      batch = batches != null ? new CSVRowBatch(BUFFER_SIZE, hasRowNames)
+          : null;
+      this.batchRows = batchRows;
+      this.filters = filters;
+      pending = filters != null ? new CSVRowBatch(256) : null;
+      this.types = types;
+      this.keep = keep;
+      this.keepNames = keepNames;
       this.hasRowNames = hasRowNames;
-      colNames = hasColNames ? new LinkedList<String>() : null;
+      colNames = hasColNames ? new String[16] : null;
+      colCount = 0;
+      colIndex = null;
+      indexed = 0;
       rowName = null;
+      indexNames = null;
+      rowIndexName = null;
+      digits = null;
+      indexChars = null;
+      this.strings = strings;
       row = hasColNames ? -1 : 0;
       col = hasRowNames ? -1 : 0;
+      if(!hasColNames) {
+        resolveFilters();
+      }
+    }
+
+    private void resolveFilters() {
+      if(filters == null || byCol != null) return;
+      byCol = new CSVFilter[0];
+      required = 0;
+      for(final CSVFilter f : filters) {
+        final int c = f.name() != null ? colIndex(f.name()) : f.col();
+        if(c < 0) {
+          // no row can match
+          required = Integer.MAX_VALUE;
+          continue;
+        }
+        if(c >= byCol.length) {
+          byCol = Arrays.copyOf(byCol, c + 1);
+        }
+        if(byCol[c] != null) {
+          byCol[c] = CSVFilter.both(byCol[c], f, c);
+        } else {
+          byCol[c] = f;
+          if(required != Integer.MAX_VALUE) {
+            ++required;
+          }
+        }
+      }
+    }
+
+    private boolean filtered() {
+      return byCol != null && col >= 0 && col < byCol.length
+          && byCol[col] != null;
+    }
+
+    private boolean filter() {
+      if(byCol == null) {
+        resolveFilters();
+      }
+      if(filtered()) {
+        if(pending.testLast(byCol[col], parser)) {
+          ++passed;
+        } else {
+          skip = true;
+        }
+      }
+      nextCell();
+      return capture();
+    }
+
+    private void replay() {
+      col = hasRowNames ? -1 : 0;
+      passed = 0;
+      replaying = true;
+      pending.replay(this);
+      replaying = false;
+      pending.clear();
     }
 
     public void addColName(final String name) {
-      colNames.add(name);
+      if(colCount == colNames.length) {
+        colNames = Arrays.copyOf(colNames, colCount * 2);
+      }
+      colNames[colCount++] = name;
+      if(keepNames != null && keepNames.contains(name)) {
+        if(col >= keep.length) {
+          keep = Arrays.copyOf(keep, Math.max(col + 1, keep.length * 2));
+        }
+        keep[col] = true;
+      }
+    }
+
+    public String[] colNames() {
+      return colNames != null ? Arrays.copyOf(colNames, colCount) : null;
+    }
+
+    public void titles(final String[] names) {
+      if(col < 0) {
+        skipped();
+      }
+      for(final String name : names) {
+        cell(name.toCharArray(), 0, name.length());
+      }
+      line();
+    }
+
+    public boolean selected() {
+      return keep == null || (col >= 0 && col < keep.length && keep[col]);
+    }
+
+    public boolean capture() {
+      return !skip && (row < 0 || col < 0 || selected() || filtered());
+    }
+
+    public void attach(final CSVTokenizer tok) {
+      charTok = tok;
+    }
+
+    public void attach(final CSVByteTokenizer tok) {
+      byteTok = tok;
+      rawBytes();
+    }
+
+    private void rawBytes() {
+      if((batch != null || pending != null) && byteTok != null && row >= 0) {
+        if(batch != null) {
+          batch.decodeWith(byteTok.charset());
+        }
+        if(pending != null) {
+          pending.decodeWith(byteTok.charset());
+        }
+        byteTok.raw(this);
+      }
+    }
+
+    public boolean skipping() {
+      return skip;
+    }
+
+    public boolean stopped() {
+      return stopped;
+    }
+
+    @Override
+    public void skipRow() {
+      if(row >= 0 && batch == null) {
+        skip = true;
+      }
+    }
+
+    @Override
+    public void stop() {
+      stopped = true;
+      skip = true;
+      if(charTok != null) {
+        charTok.pause();
+      }
+      if(byteTok != null) {
+        byteTok.pause();
+      }
     }
 
     public void setRowName(final String rowName) {
@@ -55,6 +318,159 @@ public class CSVReader {
       col = hasRowNames ? -1 : 0;
     }
 
+    public boolean number(final char[] buf, final int off, final int len) {
+      if(numbers == null || col >= types.length) return false;
+      switch(types[col]) {
+        case LONG:
+          if(!parser.parseLong(buf, off, len)) return false;
+          numbers.cellLong(this, parser.longValue());
+          return true;
+        case DOUBLE:
+          if(!parser.parseDouble(buf, off, len)) return false;
+          numbers.cellDouble(this, parser.doubleValue());
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    public String string(final int col, final char[] buf, final int off,
+        final int len) {
+      if(strings == null) return new String(buf, off, len);
+      return strings.get(col, buf, off, len);
+    }
+
+    public void seek(final int row) {
+      if(batch != null && row != this.row) {
+        flush();
+      }
+      this.row = row;
+      col = hasRowNames ? -1 : 0;
+    }
+
+    @Override
+    public boolean cell(final char[] buf, final int off, final int len) {
+      if(skip) {
+        nextCell();
+        return false;
+      }
+      if(pending != null && row >= 0 && !replaying) {
+        pending.cell(buf, off, len);
+        return filter();
+      }
+      if(batch != null && row >= 0) {
+        if(col < 0 || selected()) {
+          batch().cell(buf, off, len);
+        } else {
+          batch().skipped();
+        }
+        nextCell();
+      } else {
+        handle(this, buf, off, len);
+      }
+      return capture();
+    }
+
+    @Override
+    public boolean cellBytes(final ByteBuffer buf, final int off,
+        final int len) {
+      if(skip) {
+        nextCell();
+        return false;
+      }
+      if(pending != null) {
+        pending.cellBytes(buf, off, len);
+        return filter();
+      }
+      if(col < 0 || selected()) {
+        batch().cellBytes(buf, off, len);
+      } else {
+        batch().skipped();
+      }
+      nextCell();
+      return capture();
+    }
+
+    @Override
+    public boolean skipped() {
+      if(skip) {
+        nextCell();
+        return false;
+      }
+      if(pending != null && row >= 0 && !replaying) {
+        pending.skipped();
+        nextCell();
+        return capture();
+      }
+      if(batch != null && row >= 0) {
+        batch().skipped();
+        nextCell();
+      } else {
+        skip(this);
+      }
+      return capture();
+    }
+
+    @Override
+    public boolean line() {
+      if(pending != null && row >= 0 && !replaying) {
+        if(skip || passed < required) {
+          pending.clear();
+          passed = 0;
+          CSVReader.line(this);
+          skip = stopped;
+        } else {
+          pending.line();
+          replay();
+        }
+        return capture();
+      }
+      if(batch != null && row >= 0 && !skip) {
+        batch().line(row);
+        CSVReader.line(this);
+        if(batch.rows() >= batchRows) {
+          flush();
+        }
+      } else {
+        CSVReader.line(this);
+        if(row == 0) {
+          resolveFilters();
+          rawBytes();
+        }
+      }
+      skip = stopped;
+      return capture();
+    }
+
+    private CSVRowBatch batch() {
+      if(batch.isEmpty()) {
+        batch.setFirstRow(row);
+      }
+      return batch;
+    }
+
+    public void flush() {
+      if(batch == null || batch.rows() == 0) return;
+      batches.rows(this, batch);
+      batch.clear();
+    }
+
+    public void end() {
+      if(pending != null && row >= 0 && !skip && !pending.isEmpty()) {
+        if(passed >= required) {
+          replay();
+        }
+        pending.clear();
+      }
+      if(batch != null) {
+        if(batch.pending()) {
+          batch.line(row);
+        }
+        flush();
+      }
+      hnd.end(this);
+    }
+
     @Override
     public int col() {
       return col;
@@ -63,7 +479,55 @@ public class CSVReader {
     @Override
     public String colName() {
       if(col < 0) return null;
-      return colNames != null ? colNames.get(col) : "" + col;
+      if(colNames == null) {
+        if(indexNames == null) {
+          indexNames = new String[Math.max(col + 1, 16)];
+        } else if(col >= indexNames.length) {
+          indexNames = Arrays.copyOf(indexNames,
+              Math.max(col + 1, indexNames.length * 2));
+        }
+        String name = indexNames[col];
+        if(name == null) {
+          name = "" + col;
+          indexNames[col] = name;
+        }
+        return name;
+      }
+      if(col >= colCount) throw new IndexOutOfBoundsException("" + col);
+      return colNames[col];
+    }
+
+    @Override
+    public CharSequence colChars() {
+      if(col < 0) return null;
+      if(colNames == null) return indexChars(col);
+      return colName();
+    }
+
+    private CharSequence indexChars(final int index) {
+      if(indexChars == null) {
+        digits = new char[CSVChars.INT_CHARS];
+        indexChars = new CSVChars();
+      }
+      return indexChars.setInt(digits, index);
+    }
+
+    @Override
+    public int colIndex(final String name) {
+      if(colNames == null) return -1;
+      if(colIndex == null) {
+        colIndex = new HashMap<String, Integer>();
+      }
+      // titles are indexed on demand
+      while(indexed < colCount) {
+        final String n = colNames[indexed];
+        if(!colIndex.containsKey(n)) {
+          colIndex.put(n, indexed);
+        }
+        ++indexed;
+      }
+      final Integer c = colIndex.get(name);
+      return c != null ? c : -1;
     }
 
     @Override
@@ -73,7 +537,18 @@ public class CSVReader {
 
     @Override
     public String rowName() {
-      return rowName != null ? rowName : "" + row;
+      if(rowName != null) return rowName;
+      if(rowIndexName == null || rowIndexNameRow != row) {
+        rowIndexName = "" + row;
+        rowIndexNameRow = row;
+      }
+      return rowIndexName;
+    }
+
+    @Override
+    public CharSequence rowChars() {
+      if(rowName != null) return rowName;
+      return indexChars(row);
     }
 
     @Override
@@ -99,6 +574,18 @@ public class CSVReader {
 
   private CSVHandler handler;
 
+  private byte[] types;
+
+  private int[] selected;
+
+  private String[] selectedNames;
+
+  private int stringCache;
+
+  private int batchRows;
+
+  private CSVFilter[] filters;
+
   /**
    * Creates a csv reader with default delimiters. ';' for cells and '"' for
    * strings.
@@ -133,160 +620,1158 @@ public class CSVReader {
     rowTitle = rowTitles;
     colTitle = columnTitles;
     handler = null;
+    types = new byte[0];
+    selected = null;
+    selectedNames = null;
+    stringCache = 0;
+    batchRows = 1024;
+    filters = null;
   }
 
   /**
-   * Reads from a reader.
+   * Creates a copy of the configuration of a csv reader. The handler is not
+   * copied.
+   * 
+   * @param other The reader to copy.
+   */
+  private CSVReader(final CSVReader other) {
+    delimiter = other.delimiter;
+    string = other.string;
+    rowTitle = other.rowTitle;
+    colTitle = other.colTitle;
+    handler = null;
+    types = other.types.clone();
+    selected = other.selected != null ? other.selected.clone() : null;
+    selectedNames = other.selectedNames != null ? other.selectedNames.clone()
+        : null;
+    stringCache = other.stringCache;
+    batchRows = other.batchRows;
+    filters = other.filters;
+  }
+
+  /**
+   * Creates an immutable parser with the current configuration of this
+   * reader. Later changes to this reader do not affect the parser.
+   * 
+   * @return The parser.
+   */
+  public CSVParser parser() {
+    return new CSVParser(new CSVReader(this));
+  }
+
+  /**
+   * Creates a reader with the same configuration but without handler.
+   * 
+   * @return The copy.
+   */
+  CSVReader copy() {
+    return new CSVReader(this);
+  }
+
+  /**
+   * Reads from a reader. The reader is read in large blocks so there is no
+   * need to wrap it in a buffered reader.
    * 
    * @param r The reader.
    * @throws IOException If an I/O Exception occurs.
    */
   public void read(final Reader r) throws IOException {
-    if(handler == null) throw new IllegalStateException(
-        "handler needs to be set first");
-    final CSVHandler hnd = handler;
-    final Context ctx = new Context(colTitle, rowTitle);
-    hnd.start(ctx);
-    char ignore = 0x0;
-    char line = 0x0;
-    boolean canString = true;
-    boolean isString = false;
-    boolean endString = false;
-    boolean afterLn = false;
-    StringBuilder current = null;
-    int i;
-    while((i = r.read()) != -1) {
-      if(current == null) {
-        current = new StringBuilder();
-      }
-      final char c = (char) i;
-      if(c == ignore && ignore != 0x0) {
-        continue;
-      }
-      afterLn = false;
-      if(line == 0x0 && (c == '\r' || c == '\n')) {
-        line = c;
-        ignore = (c == '\r') ? '\n' : '\r';
-      }
-      if(c == string) {
-        if(!endString) {
-          if(!isString) {
-            if(canString) {
-              isString = true;
-              continue;
-            }
-          } else {
-            endString = true;
-            continue;
-          }
-        }
-        endString = false;
-      } else if(endString) {
-        endString = false;
-        isString = false;
-      }
-      if(c == delimiter && !isString) {
-        handle(hnd, current.toString(), ctx);
-        current = null;
-        canString = true;
-        continue;
-      }
-      canString = false;
-      if(c == line) {
-        if(isString) {
-          current.append(NL);
-        } else {
-          handle(hnd, current.toString(), ctx);
-          line(ctx);
-          canString = true;
-          current = null;
-        }
-        afterLn = true;
-        continue;
+    read(r, start());
+  }
+
+  /**
+   * Reads from a reader.
+   * 
+   * @param r The reader.
+   * @param ctx The context.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  void read(final Reader r, final Context ctx) throws IOException {
+    final CSVTokenizer tok = new CSVTokenizer(ctx, delimiter, string);
+    ctx.attach(tok);
+    final char[] buf = takeChars();
+    try {
+      int n;
+      while(!ctx.stopped() && (n = r.read(buf)) != -1) {
+        tok.feed(buf, 0, n);
       }
-      current.append(c);
-    }
-    if(current != null && (current.length() > 0 || !afterLn)) {
-      handle(hnd, current.toString(), ctx);
+    } finally {
+      CHARS.set(buf);
     }
-    hnd.end(ctx);
+    tok.finish();
+    ctx.end();
   }
 
-  private static void handle(final CSVHandler hnd, final String content,
-      final Context ctx) {
-    switch(ctx.col()) {
-      case -1:
-        if(ctx.row() < 0) {
-          break;
-        }
-        ctx.setRowName(content);
-        hnd.rowTitle(ctx, content);
-        break;
-      case 0:
-        if(ctx.row() >= 0) {
-          hnd.row(ctx);
-        }
-        // no break
-        //$FALL-THROUGH$
-      default:
-        if(ctx.row() < 0) {
-          ctx.addColName(content);
-          hnd.colTitle(ctx, content);
-          break;
-        }
-        hnd.cell(ctx, content);
-        break;
+  /**
+   * Reads from an input stream. When the charset is UTF-8, US-ASCII, or
+   * ISO-8859-1 and both delimiters are ASCII characters the cells are found on
+   * the raw bytes and only their contents are decoded. Otherwise the stream is
+   * decoded as a whole. The stream is read in large blocks so there is no need
+   * to wrap it in a buffered stream.
+   * 
+   * @param in The input stream.
+   * @param cs The charset of the input.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void read(final InputStream in, final Charset cs) throws IOException {
+    read(in, cs, start());
+  }
+
+  /**
+   * Reads from an input stream.
+   * 
+   * @param in The input stream.
+   * @param cs The charset of the input.
+   * @param ctx The context.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #read(InputStream, Charset)
+   */
+  void read(final InputStream in, final Charset cs, final Context ctx)
+      throws IOException {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) {
+      read(new InputStreamReader(in, cs), ctx);
+      return;
     }
-    ctx.nextCell();
+    final CSVByteTokenizer tok = new CSVByteTokenizer(ctx, delimiter, string,
+        cs);
+    ctx.attach(tok);
+    final byte[] buf = takeBytes();
+    try {
+      final ByteBuffer bb = ByteBuffer.wrap(buf);
+      int n;
+      while(!ctx.stopped() && (n = in.read(buf)) != -1) {
+        tok.feed(bb, 0, n);
+      }
+    } finally {
+      BYTES.set(buf);
+    }
+    tok.finish();
+    ctx.end();
   }
 
-  private static void line(final Context ctx) {
-    ctx.nextRow();
+  /**
+   * Takes the character buffer of the current thread. The buffer is put back
+   * after use. Nested reads on the same thread get a new buffer.
+   * 
+   * @return The buffer.
+   */
+  private static char[] takeChars() {
+    final char[] buf = CHARS.get();
+    if(buf == null) return new char[BUFFER_SIZE];
+    CHARS.set(null);
+    return buf;
   }
 
   /**
-   * Sets the csv handler.
+   * Takes the byte buffer of the current thread. The buffer is put back
+   * after use. Nested reads on the same thread get a new buffer.
    * 
-   * @param handler The handler.
+   * @return The buffer.
    */
-  public void setHandler(final CSVHandler handler) {
-    this.handler = handler;
+  private static byte[] takeBytes() {
+    final byte[] buf = BYTES.get();
+    if(buf == null) return new byte[BUFFER_SIZE];
+    BYTES.set(null);
+    return buf;
   }
 
   /**
-   * Setter.
+   * Reads the characters of a string or any other character sequence. The
+   * characters are copied in large blocks without any locking so this is much
+   * faster than reading through a {@link java.io.StringReader} especially for
+   * small inputs. Character buffers with an accessible array are read
+   * directly.
    * 
-   * @param colTitle Whether to interpret the first row as column titles.
+   * @param seq The character sequence.
    */
-  public void setReadColTitles(final boolean colTitle) {
-    this.colTitle = colTitle;
+  public void read(final CharSequence seq) {
+    read(seq, start());
   }
 
   /**
-   * Getter.
+   * Reads the characters of a character sequence.
    * 
-   * @return Whether the first row is interpreted as column titles.
+   * @param seq The character sequence.
+   * @param ctx The context.
+   * @see #read(CharSequence)
    */
-  public boolean readColTitles() {
-    return colTitle;
+  void read(final CharSequence seq, final Context ctx) {
+    final CSVTokenizer tok = new CSVTokenizer(ctx, delimiter, string);
+    ctx.attach(tok);
+    final int len = seq.length();
+    if(seq instanceof CharBuffer && ((CharBuffer) seq).hasArray()) {
+      final CharBuffer cb = (CharBuffer) seq;
+      final int off = cb.arrayOffset() + cb.position();
+      tok.feed(cb.array(), off, off + len);
+    } else {
+      final char[] buf = takeChars();
+      try {
+        for(int pos = 0; pos < len && !ctx.stopped(); pos += buf.length) {
+          final int n = Math.min(buf.length, len - pos);
+          getChars(seq, pos, pos + n, buf);
+          tok.feed(buf, 0, n);
+        }
+      } finally {
+        CHARS.set(buf);
+      }
+    }
+    tok.finish();
+    ctx.end();
   }
 
   /**
-   * Setter.
+   * Copies characters of a character sequence to the beginning of an array.
    * 
-   * @param rowTitle Whether to interpret the first column as row titles.
+   * @param seq The character sequence.
+   * @param from The first character.
+   * @param to The end of the characters (exclusive).
+   * @param dst The array.
    */
-  public void setReadRowTitles(final boolean rowTitle) {
-    this.rowTitle = rowTitle;
+  private static void getChars(final CharSequence seq, final int from,
+      final int to, final char[] dst) {
+    if(seq instanceof String) {
+      ((String) seq).getChars(from, to, dst, 0);
+    } else if(seq instanceof StringBuilder) {
+      ((StringBuilder) seq).getChars(from, to, dst, 0);
+    } else if(seq instanceof StringBuffer) {
+      ((StringBuffer) seq).getChars(from, to, dst, 0);
+    } else {
+      for(int i = from; i < to; ++i) {
+        dst[i - from] = seq.charAt(i);
+      }
+    }
   }
 
   /**
-   * Getter.
+   * Reads the remaining bytes of a buffer. The bytes are handled like in
+   * {@link #read(InputStream, Charset)}. Afterwards the position of the buffer
+   * is its limit unless the handler stopped reading by
+   * {@link CSVContext#stop()}. In that case the position is where reading
+   * stopped if the buffer was parsed directly.
    * 
-   * @return Whether the first column is interpreted as row titles.
+   * @param buf The buffer.
+   * @param cs The charset of the input.
+   */
+  public void read(final ByteBuffer buf, final Charset cs) {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) {
+      final CharBuffer cb = cs.decode(buf);
+      final Context ctx = start();
+      final CSVTokenizer tok = new CSVTokenizer(ctx, delimiter, string);
+      ctx.attach(tok);
+      tok.feed(cb.array(), cb.arrayOffset() + cb.position(),
+          cb.arrayOffset() + cb.limit());
+      tok.finish();
+      ctx.end();
+      return;
+    }
+    final Context ctx = start();
+    final CSVByteTokenizer tok = new CSVByteTokenizer(ctx, delimiter, string,
+        cs);
+    ctx.attach(tok);
+    final int end = tok.feed(buf, buf.position(), buf.limit());
+    tok.finish();
+    buf.position(end);
+    ctx.end();
+  }
+
+  /**
+   * Reads a file. The file is mapped into memory in segments and parsed
+   * directly from the mapped buffers if the charset allows it.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #read(FileChannel, Charset)
+   */
+  public void read(final Path path, final Charset cs) throws IOException {
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      read(ch, cs);
+    } finally {
+      ch.close();
+    }
+  }
+
+  /**
+   * Reads a file channel from its current position to its end. When the
+   * charset is supported as in {@link #read(InputStream, Charset)} the file is
+   * mapped into memory in segments and parsed directly from the mapped
+   * buffers. Otherwise the channel is read through a decoding reader.
+   * Afterwards the position of the channel is its size unless the handler
+   * stopped reading by {@link CSVContext#stop()}. In that case the position
+   * is where reading stopped if the file was parsed directly.
+   * 
+   * @param ch The channel.
+   * @param cs The charset of the file.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void read(final FileChannel ch, final Charset cs) throws IOException {
+    read(ch, cs, start());
+  }
+
+  /**
+   * Reads a file channel from its current position to its end.
+   * 
+   * @param ch The channel.
+   * @param cs The charset of the file.
+   * @param ctx The context.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #read(FileChannel, Charset)
+   */
+  void read(final FileChannel ch, final Charset cs, final Context ctx)
+      throws IOException {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) {
+      // malformed input is replaced as by the other readers
+      read(Channels.newReader(ch, cs.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE), -1), ctx);
+      return;
+    }
+    final CSVByteTokenizer tok = new CSVByteTokenizer(ctx, delimiter, string,
+        cs);
+    ctx.attach(tok);
+    final long end = tok.feed(ch, ch.position(), ch.size());
+    tok.finish();
+    ch.position(end);
+    ctx.end();
+  }
+
+  /**
+   * Reads a file in parallel on the common fork join pool.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @param ordered Whether the rows have to be passed to the handler in the
+   *          order of the file.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #readParallel(FileChannel, Charset, ForkJoinPool, boolean)
+   */
+  public void readParallel(final Path path, final Charset cs,
+      final boolean ordered) throws IOException {
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      readParallel(ch, cs, ForkJoinPool.commonPool(), ordered);
+    } finally {
+      ch.close();
+    }
+  }
+
+  /**
+   * Reads a file channel from its current position to its end in parallel.
+   * The file is split into chunks whose row ends are found concurrently
+   * respecting strings. The rows are then parsed concurrently on the given
+   * pool. The handler is only called by the current thread. If the rows are
+   * not ordered they are passed to the handler as soon as they are parsed.
+   * The row indices in the context are correct in both cases. The column
+   * titles are always passed first. Small files and files that cannot be
+   * parsed on raw bytes (see {@link #read(InputStream, Charset)}) are read by
+   * the current thread. Afterwards the position of the channel is its size.
+   * 
+   * @param ch The channel.
+   * @param cs The charset of the file.
+   * @param pool The pool for parsing.
+   * @param ordered Whether the rows have to be passed to the handler in the
+   *          order of the file.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void readParallel(final FileChannel ch, final Charset cs,
+      final ForkJoinPool pool, final boolean ordered) throws IOException {
+    final CSVParallel par = parallel(ch, cs, pool, 2 * pool.getParallelism());
+    if(!par.prepare()) {
+      read(ch, cs);
+      return;
+    }
+    final Context ctx = start();
+    par.read(ctx, ordered);
+    ch.position(ch.size());
+    ctx.end();
+  }
+
+  /**
+   * Reads from a reader in a pipeline of three stages running at the same
+   * time. The first stage reads blocks from the reader, the second stage
+   * splits the blocks into cells, and the current thread passes the cells to
+   * the handler. The stages are linked by bounded queues of reused blocks and
+   * batches of cells. This pays off when the handler does considerable work
+   * since parsing then happens while the handler is busy.
+   * 
+   * @param r The reader.
+   * @param pool The pool running the first two stages. It must be able to run
+   *          two tasks at once.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void readPipelined(final Reader r, final ExecutorService pool)
+      throws IOException {
+    final Context ctx = start();
+    new CSVPipeline(this, r, pool).read(ctx);
+    ctx.end();
+  }
+
+  /**
+   * Reads from an input stream in a pipeline of three stages like
+   * {@link #readPipelined(Reader, ExecutorService)}. When the charset is
+   * supported as in {@link #read(InputStream, Charset)} the first stage only
+   * reads bytes and the contents of the cells are decoded in the second
+   * stage. Otherwise the first stage decodes the stream.
+   * 
+   * @param in The input stream.
+   * @param cs The charset of the input.
+   * @param pool The pool running the first two stages. It must be able to run
+   *          two tasks at once.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public void readPipelined(final InputStream in, final Charset cs,
+      final ExecutorService pool) throws IOException {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) {
+      readPipelined(new InputStreamReader(in, cs), pool);
+      return;
+    }
+    final Context ctx = start();
+    new CSVPipeline(this, in, cs, pool).read(ctx);
+    ctx.end();
+  }
+
+  /**
+   * Reads multiple files concurrently. Every file is read like
+   * {@link #read(Path, Charset)} with its own handler created by the factory.
+   * The handler of this reader is not used. The handlers are merged in the
+   * order of the files by the current thread. On JDKs with virtual threads
+   * every file is read on its own virtual thread, otherwise a pool with a
+   * thread per processor is used. Only a limited number of files is read
+   * ahead of the next file to merge. The configuration of this reader must
+   * not change while reading.
+   * 
+   * @param <H> The type of the handlers.
+   * @param files The files.
+   * @param cs The charset of the files.
+   * @param factory The handler factory.
+   * @throws IOException If an I/O Exception occurs. The remaining files are
+   *           not read in that case.
+   */
+  public <H extends CSVHandler> void readFiles(final List<Path> files,
+      final Charset cs, final CSVHandlerFactory<H> factory)
+      throws IOException {
+    final ExecutorService pool = CSVFiles.executor();
+    try {
+      readFiles(files, cs, factory, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Reads multiple files concurrently on the given pool like
+   * {@link #readFiles(List, Charset, CSVHandlerFactory)}.
+   * 
+   * @param <H> The type of the handlers.
+   * @param files The files.
+   * @param cs The charset of the files.
+   * @param factory The handler factory.
+   * @param pool The pool reading the files.
+   * @throws IOException If an I/O Exception occurs. The remaining files are
+   *           not read in that case.
+   */
+  public <H extends CSVHandler> void readFiles(final List<Path> files,
+      final Charset cs, final CSVHandlerFactory<H> factory,
+      final ExecutorService pool) throws IOException {
+    CSVFiles.read(this, files, cs, factory, pool,
+        4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Reads all files of a directory whose names match a glob pattern like
+   * {@link #readFiles(List, Charset, CSVHandlerFactory)}. The files are
+   * merged in the order of their names.
+   * 
+   * @param <H> The type of the handlers.
+   * @param dir The directory.
+   * @param glob The pattern of the file names, e.g. <code>"*.csv"</code>.
+   * @param cs The charset of the files.
+   * @param factory The handler factory.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public <H extends CSVHandler> void readDirectory(final Path dir,
+      final String glob, final Charset cs, final CSVHandlerFactory<H> factory)
+      throws IOException {
+    final List<Path> files = new ArrayList<Path>();
+    final DirectoryStream<Path> ds = Files.newDirectoryStream(dir, glob);
+    try {
+      for(final Path p : ds) {
+        if(Files.isRegularFile(p)) {
+          files.add(p);
+        }
+      }
+    } finally {
+      ds.close();
+    }
+    Collections.sort(files);
+    readFiles(files, cs, factory);
+  }
+
+  /**
+   * Follows a file that grows by appending rows starting at its beginning.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @return The follower.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #follow(Path, Charset, CSVCheckpoint)
+   */
+  public CSVFollower follow(final Path path, final Charset cs)
+      throws IOException {
+    return follow(path, cs, null);
+  }
+
+  /**
+   * Follows a file that grows by appending rows. Only complete rows are
+   * passed to the handler when calling {@link CSVFollower#poll()}. When
+   * continuing from a checkpoint the column titles stored in the checkpoint
+   * are passed to the handler first and the rows keep their indices. The
+   * charset must be supported as in {@link #read(InputStream, Charset)}.
+   * Closing the follower signals the end to the handler.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @param from The checkpoint of an earlier follower of the same file or
+   *          <code>null</code> to start at the beginning of the file.
+   * @return The follower.
+   * @throws IOException If an I/O Exception occurs.
+   * @see CSVFollower
+   */
+  public CSVFollower follow(final Path path, final Charset cs,
+      final CSVCheckpoint from) throws IOException {
+    checkBytes(cs);
+    if(from != null && from.hasColNames() != colTitle
+        && (from.hasColNames() || from.offset() > 0)) {
+      throw new IllegalArgumentException(
+          "checkpoint does not match the column titles setting");
+    }
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    boolean ok = false;
+    try {
+      final CSVFollower res = new CSVFollower(this, ch, cs, from, start());
+      ok = true;
+      return res;
+    } finally {
+      if(!ok) {
+        ch.close();
+      }
+    }
+  }
+
+  /**
+   * Builds a sparse index of the rows of a file. The index stores the offset
+   * of every row whose index is a multiple of the given step and allows to
+   * read a range of rows without reading the file from the beginning. The
+   * charset must be supported as in {@link #read(InputStream, Charset)}.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @param step The number of rows between stored offsets.
+   * @return The index.
+   * @throws IOException If an I/O Exception occurs.
+   * @see CSVIndex
+   */
+  public CSVIndex index(final Path path, final Charset cs, final int step)
+      throws IOException {
+    if(step <= 0) throw new IllegalArgumentException("step must be positive: "
+        + step);
+    checkBytes(cs);
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return CSVIndex.build(this, ch, cs, step);
+    } finally {
+      ch.close();
+    }
+  }
+
+  /**
+   * Reads a range of rows of a file using an index of the file. The handler
+   * receives the column titles followed by the rows of the range with their
+   * actual indices. Only the rows between the closest indexed row and the
+   * end of the range are read.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @param index The index of the file built with the same configuration.
+   * @param from The index of the first row.
+   * @param count The maximal number of rows.
+   * @throws IOException If an I/O Exception occurs or the file was
+   *           truncated or rewritten since the index was built.
+   * @see #index(Path, Charset, int)
+   */
+  public void read(final Path path, final Charset cs, final CSVIndex index,
+      final int from, final int count) throws IOException {
+    if(from < 0 || count < 0) throw new IllegalArgumentException("from: "
+        + from + " count: " + count);
+    checkBytes(cs);
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      index.check(this, ch);
+      final Context ctx = start();
+      index.read(this, ctx, ch, cs, from, count);
+      ctx.end();
+    } finally {
+      ch.close();
+    }
+  }
+
+  /**
+   * Opens a cursor at a row of a file using an index of the file. The column
+   * titles are taken from the index and the rows keep their actual indices.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @param index The index of the file built with the same configuration.
+   * @param from The index of the first row returned by the cursor.
+   * @return The cursor.
+   * @throws IOException If an I/O Exception occurs or the file was
+   *           truncated or rewritten since the index was built.
+   * @see #index(Path, Charset, int)
+   */
+  public CSVCursor cursor(final Path path, final Charset cs,
+      final CSVIndex index, final int from) throws IOException {
+    if(from < 0) throw new IllegalArgumentException("from: " + from);
+    checkBytes(cs);
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    boolean ok = false;
+    try {
+      final CSVCursor res = index.cursor(this, ch, cs, from);
+      ok = true;
+      return res;
+    } finally {
+      if(!ok) {
+        ch.close();
+      }
+    }
+  }
+
+  /**
+   * Streams the rows of a UTF-8 encoded file.
+   * 
+   * @param path The file.
+   * @return The rows.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #rows(Path, Charset)
+   */
+  public Stream<CSVRow> rows(final Path path) throws IOException {
+    return rows(path, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Streams the rows of a file. The handler of this reader is not used and
+   * the column titles are not part of the stream. A sequential stream reads
+   * the file row by row. A parallel stream divides the file at row ends
+   * respecting strings so that the rows can be parsed on the common fork
+   * join pool when the charset is supported as in
+   * {@link #read(InputStream, Charset)}. The stream needs to be closed to
+   * close the file.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @return The rows.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  public Stream<CSVRow> rows(final Path path, final Charset cs)
+      throws IOException {
+    final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    final Stream<CSVRow> res = StreamSupport.stream(
+        new CSVRowSpliterator(this, ch, cs), false);
+    return res.onClose(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          ch.close();
+        } catch(final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+    });
+  }
+
+  /**
+   * Opens a cursor that reads the rows of the given reader one at a time. The
+   * handler of this reader is not used. Closing the cursor closes the reader.
+   * 
+   * @param r The reader.
+   * @return The cursor.
+   * @see CSVCursor
+   */
+  public CSVCursor cursor(final Reader r) {
+    return new CSVCursor(this, r);
+  }
+
+  /**
+   * Opens a cursor that reads the rows of the given input stream one at a
+   * time. The bytes are handled like in {@link #read(InputStream, Charset)}.
+   * The handler of this reader is not used. Closing the cursor closes the
+   * stream.
+   * 
+   * @param in The input stream.
+   * @param cs The charset of the input.
+   * @return The cursor.
+   * @see CSVCursor
+   */
+  public CSVCursor cursor(final InputStream in, final Charset cs) {
+    return new CSVCursor(this, in, cs);
+  }
+
+  /**
+   * Opens a cursor that reads the rows of the given file one at a time.
+   * 
+   * @param path The file.
+   * @param cs The charset of the file.
+   * @return The cursor.
+   * @throws IOException If an I/O Exception occurs.
+   * @see #cursor(InputStream, Charset)
+   */
+  public CSVCursor cursor(final Path path, final Charset cs)
+      throws IOException {
+    return cursor(Files.newInputStream(path), cs);
+  }
+
+  /**
+   * Ensures that the input can be split into cells without decoding it.
+   * 
+   * @param cs The charset of the input.
+   * @see CSVByteTokenizer#supports(Charset, char, char)
+   */
+  private void checkBytes(final Charset cs) {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) {
+      throw new IllegalArgumentException("unsupported charset " + cs
+          + " or delimiters");
+    }
+  }
+
+  /**
+   * Creates the context for reading and signals the start to the handler.
+   * 
+   * @return The context.
+   */
+  private Context start() {
+    if(handler == null) throw new IllegalStateException(
+        "handler needs to be set first");
+    return start(handler);
+  }
+
+  /**
+   * Creates the context for reading with the given handler and signals the
+   * start to the handler.
+   * 
+   * @param hnd The handler.
+   * @return The context.
+   */
+  Context start(final CSVHandler hnd) {
+    if(selectedNames != null && !colTitle) throw new IllegalStateException(
+        "columns can only be selected by name with column titles");
+    if(filters != null && !colTitle) {
+      for(final CSVFilter f : filters) {
+        if(f.name() != null) throw new IllegalStateException(
+            "columns can only be filtered by name with column titles");
+      }
+    }
+    boolean[] keep = null;
+    Set<String> keepNames = null;
+    if(selected != null) {
+      int max = 0;
+      for(final int c : selected) {
+        max = Math.max(max, c + 1);
+      }
+      keep = new boolean[max];
+      for(final int c : selected) {
+        keep[c] = true;
+      }
+    } else if(selectedNames != null) {
+      keep = new boolean[0];
+      keepNames = new HashSet<String>(Arrays.asList(selectedNames));
+    }
+    final CSVStrings strings = stringCache > 0 ? new CSVStrings(stringCache)
+        : null;
+    final Context ctx = new Context(hnd, colTitle, rowTitle, types.clone(),
+        keep, keepNames, strings, batchRows, filters);
+    hnd.start(ctx);
+    return ctx;
+  }
+
+  /**
+   * Creates a parallel reader for a file channel starting at its current
+   * position.
+   * 
+   * @param ch The channel.
+   * @param cs The charset of the file.
+   * @param pool The pool for scanning and parsing.
+   * @param window The maximal number of chunks that are processed at once.
+   * @return The parallel reader.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  CSVParallel parallel(final FileChannel ch, final Charset cs,
+      final ExecutorService pool, final int window) throws IOException {
+    return new CSVParallel(ch, cs, delimiter, string, pool, window);
+  }
+
+  /**
+   * Creates a tokenizer for characters.
+   * 
+   * @param sink The sink.
+   * @return The tokenizer.
+   */
+  CSVTokenizer tokenizer(final CSVSink sink) {
+    return new CSVTokenizer(sink, delimiter, string);
+  }
+
+  /**
+   * Creates a tokenizer for bytes.
+   * 
+   * @param sink The sink.
+   * @param cs The charset of the input.
+   * @return The tokenizer or <code>null</code> if the input has to be decoded
+   *         as a whole.
+   */
+  CSVByteTokenizer tokenizer(final CSVSink sink, final Charset cs) {
+    if(!CSVByteTokenizer.supports(cs, delimiter, string)) return null;
+    return new CSVByteTokenizer(sink, delimiter, string, cs);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The cell delimiter.
+   */
+  char delimiter() {
+    return delimiter;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The string delimiter.
+   */
+  char string() {
+    return string;
+  }
+
+  private static void handle(final Context ctx, final char[] buf,
+      final int off, final int len) {
+    final CSVHandler hnd = ctx.hnd;
+    switch(ctx.col()) {
+      case -1:
+        if(ctx.row() < 0) {
+          break;
+        }
+        ctx.setRowName(ctx.string(-1, buf, off, len));
+        hnd.rowTitle(ctx, ctx.rowName());
+        break;
+      case 0:
+        if(ctx.row() >= 0) {
+          hnd.row(ctx);
+          if(ctx.skipping()) {
+            break;
+          }
+        }
+        // no break
+        //$FALL-THROUGH$
+      default:
+        if(ctx.row() < 0) {
+          ctx.addColName(new String(buf, off, len));
+          if(ctx.selected()) {
+            hnd.colTitle(ctx, ctx.colName());
+          }
+          break;
+        }
+        if(!ctx.selected() || ctx.number(buf, off, len)) {
+          break;
+        }
+        if(ctx.chars != null) {
+          ctx.chars.cellChars(ctx, ctx.view.set(buf, off, len));
+        } else {
+          hnd.cell(ctx, ctx.string(ctx.col(), buf, off, len));
+        }
+        break;
+    }
+    ctx.nextCell();
+  }
+
+  private static void skip(final Context ctx) {
+    if(ctx.col() == 0 && ctx.row() >= 0) {
+      ctx.hnd.row(ctx);
+    }
+    ctx.nextCell();
+  }
+
+  private static void line(final Context ctx) {
+    ctx.nextRow();
+  }
+
+  /**
+   * Sets the csv handler.
+   * 
+   * @param handler The handler.
+   */
+  public void setHandler(final CSVHandler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param colTitle Whether to interpret the first row as column titles.
+   */
+  public void setReadColTitles(final boolean colTitle) {
+    this.colTitle = colTitle;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the first row is interpreted as column titles.
+   */
+  public boolean readColTitles() {
+    return colTitle;
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param rowTitle Whether to interpret the first column as row titles.
+   */
+  public void setReadRowTitles(final boolean rowTitle) {
+    this.rowTitle = rowTitle;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the first column is interpreted as row titles.
    */
   public boolean readRowTitles() {
     return rowTitle;
   }
 
+  /**
+   * Sets the columns whose cells are passed as longs to a
+   * {@link CSVNumberHandler}. Other columns that were set as long columns
+   * before become text columns.
+   * 
+   * @param cols The indices of the columns.
+   */
+  public void setLongColumns(final int... cols) {
+    setTypes(LONG, cols);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The indices of the columns whose cells are passed as longs.
+   */
+  public int[] longColumns() {
+    return getTypes(LONG);
+  }
+
+  /**
+   * Sets the columns whose cells are passed as doubles to a
+   * {@link CSVNumberHandler}. Other columns that were set as double columns
+   * before become text columns.
+   * 
+   * @param cols The indices of the columns.
+   */
+  public void setDoubleColumns(final int... cols) {
+    setTypes(DOUBLE, cols);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The indices of the columns whose cells are passed as doubles.
+   */
+  public int[] doubleColumns() {
+    return getTypes(DOUBLE);
+  }
+
+  /**
+   * Selects the columns that are passed to the handler. Cells of other columns
+   * are still scanned but neither buffered nor passed to the handler. The
+   * column indices in the context stay the indices of the file. Row titles are
+   * always passed to the handler. This replaces a selection by name.
+   * 
+   * @param cols The indices of the columns.
+   */
+  public void selectColumns(final int... cols) {
+    for(final int c : cols) {
+      if(c < 0) throw new IllegalArgumentException("negative column " + c);
+    }
+    selected = cols.clone();
+    selectedNames = null;
+  }
+
+  /**
+   * Selects the columns that are passed to the handler by their titles. The
+   * titles are matched when the first row is read which requires column
+   * titles. Titles that do not occur are ignored. Otherwise this works like
+   * {@link #selectColumns(int...)} and replaces a selection by index.
+   * 
+   * @param names The titles of the columns.
+   */
+  public void selectColumns(final String... names) {
+    for(final String n : names) {
+      if(n == null) throw new NullPointerException("names");
+    }
+    selectedNames = names.clone();
+    selected = null;
+  }
+
+  /**
+   * Passes the cells of all columns to the handler. This is the default.
+   */
+  public void selectAllColumns() {
+    selected = null;
+    selectedNames = null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The indices of the selected columns or <code>null</code> if the
+   *         columns are not selected by index.
+   */
+  public int[] selectedColumns() {
+    return selected != null ? selected.clone() : null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The titles of the selected columns or <code>null</code> if the
+   *         columns are not selected by title.
+   */
+  public String[] selectedColumnNames() {
+    return selectedNames != null ? selectedNames.clone() : null;
+  }
+
+  /**
+   * Sets whether repeated contents of a column are passed as the same string
+   * instance. Each column gets a cache of at most the given number of strings
+   * that is looked up before a string is created. The number of strings is
+   * rounded down to a power of two. Columns whose contents rarely repeat stop
+   * being cached after a while. This affects strings passed to
+   * {@link CSVHandler#cell(CSVContext, String)},
+   * {@link CSVHandler#rowTitle(CSVContext, String)}, and returned by
+   * {@link CSVCursor#getString(int)}.
+   * 
+   * @param size The maximal number of cached strings per column or
+   *          <code>0</code> to disable the cache which is the default.
+   */
+  public void setStringCache(final int size) {
+    if(size < 0 || size > 1 << 24) throw new IllegalArgumentException(
+        "invalid cache size " + size);
+    stringCache = size;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The maximal number of cached strings per column or
+   *         <code>0</code> if the cache is disabled.
+   */
+  public int stringCache() {
+    return stringCache;
+  }
+
+  /**
+   * Sets the number of rows that are passed at once to a
+   * {@link CSVBatchHandler}.
+   * 
+   * @param rows The number of rows per batch. The default is
+   *          <code>1024</code>.
+   */
+  public void setBatchRows(final int rows) {
+    if(rows < 1) throw new IllegalArgumentException(
+        "invalid batch size " + rows);
+    batchRows = rows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of rows that are passed at once to a
+   *         {@link CSVBatchHandler}.
+   */
+  public int batchRows() {
+    return batchRows;
+  }
+
+  /**
+   * Adds a filter that rows have to fulfill in order to be passed to the
+   * handler. Rows are only passed on when they are kept by all filters. The
+   * cells of a row are buffered until every filtered column is seen and a
+   * row is dropped as soon as one filter fails. Dropped rows cause no events
+   * and the rest of the row is neither decoded nor buffered. The index of a
+   * row reported by the context is still its index in the input.
+   * 
+   * @param filter The filter.
+   * @see #clearFilters()
+   */
+  public void addFilter(final CSVFilter filter) {
+    if(filter == null) throw new NullPointerException("filter");
+    if(filters == null) {
+      filters = new CSVFilter[] { filter};
+    } else {
+      filters = Arrays.copyOf(filters, filters.length + 1);
+      filters[filters.length - 1] = filter;
+    }
+  }
+
+  /**
+   * Removes all filters so that every row is passed to the handler. This is
+   * the default.
+   */
+  public void clearFilters() {
+    filters = null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The filters. The array is empty if there are no filters.
+   */
+  public CSVFilter[] filters() {
+    return filters != null ? filters.clone() : new CSVFilter[0];
+  }
+
+  private void setTypes(final byte type, final int[] cols) {
+    int max = types.length;
+    for(final int c : cols) {
+      if(c < 0) throw new IllegalArgumentException("negative column " + c);
+      max = Math.max(max, c + 1);
+    }
+    final byte[] t = Arrays.copyOf(types, max);
+    for(int i = 0; i < t.length; ++i) {
+      if(t[i] == type) {
+        t[i] = TEXT;
+      }
+    }
+    for(final int c : cols) {
+      t[c] = type;
+    }
+    types = t;
+  }
+
+  private int[] getTypes(final byte type) {
+    int count = 0;
+    for(final byte t : types) {
+      if(t == type) {
+        ++count;
+      }
+    }
+    final int[] res = new int[count];
+    int pos = 0;
+    for(int i = 0; i < types.length; ++i) {
+      if(types[i] == type) {
+        res[pos++] = i;
+      }
+    }
+    return res;
+  }
+
 }
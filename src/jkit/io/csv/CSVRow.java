@@ -0,0 +1,82 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.util.Arrays;
+
+/**
+ * An immutable row of a csv file.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVReader#rows(java.nio.file.Path, java.nio.charset.Charset)
+ */
+public final class CSVRow {
+
+  /** The index of the row. */
+  private final int row;
+
+  /** The name of the row. */
+  private final String name;
+
+  /** The cells. */
+  private final String[] cells;
+
+  /**
+   * Creates a row.
+   * 
+   * @param row The index of the row.
+   * @param name The name of the row or <code>null</code>.
+   * @param cells The cells. The array is not copied.
+   */
+  CSVRow(final int row, final String name, final String[] cells) {
+    this.row = row;
+    this.name = name;
+    this.cells = cells;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The index of the row.
+   */
+  public int row() {
+    return row;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The title of the row or <code>null</code> if there are no row
+   *         titles.
+   */
+  public String rowName() {
+    return name;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of columns.
+   */
+  public int size() {
+    return cells.length;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The content of the cell or <code>null</code> if the cell is
+   *         missing or its column is not selected.
+   */
+  public String get(final int col) {
+    return col >= 0 && col < cells.length ? cells[col] : null;
+  }
+
+  @Override
+  public String toString() {
+    return "row[" + row + "](" + name + ")" + Arrays.toString(cells);
+  }
+
+}
@@ -0,0 +1,659 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+/**
+ * Stores the cells and line breaks of consecutive rows in a single character
+ * buffer so that they can be passed on later. The batch always needs the
+ * content of all cells. Skipped cells are stored without content and are
+ * passed on as skipped cells. Batches are passed to a
+ * {@link CSVBatchHandler} which can access the cells by row and column
+ * without creating objects. The content of a cell is the range from
+ * {@link #start(int, int)} to {@link #end(int, int)} in {@link #data()}.
+ * Batches are reused by the reader and are only valid during the call of
+ * the handler. When the input is read as bytes the cells are stored
+ * undecoded and every cell is decoded when it is accessed. Cells that are
+ * never accessed are never decoded. Accessing {@link #data()} decodes all
+ * cells of the batch at once.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public final class CSVRowBatch implements CSVSink {
+
+  /** Whether the first cell of every row is its title. */
+  private final boolean titled;
+
+  /** The index of the first row. */
+  private int first;
+
+  /** The parser for numbers. */
+  private CSVNumbers parser;
+
+  /** The content of all cells. */
+  private char[] data;
+
+  /** The number of used characters. */
+  private int size;
+
+  /**
+   * The end of every cell in {@link #data}. Skipped cells are stored as the
+   * complement of the end.
+   */
+  private int[] ends;
+
+  /** The number of cells. */
+  private int cells;
+
+  /** The number of cells at the end of every row. */
+  private int[] rowEnds;
+
+  /** The number of rows ended by a line break. */
+  private int rows;
+
+  /** The index of every row in the input or <code>null</code>. */
+  private int[] indices;
+
+  /** Whether the cells are stored as undecoded bytes. */
+  private boolean bytes;
+
+  /** The undecoded content of all cells or <code>null</code>. */
+  private byte[] raw;
+
+  /** The undecoded content as buffer. */
+  private ByteBuffer rawBuf;
+
+  /** The decoder or <code>null</code> if bytes can simply be widened. */
+  private CharsetDecoder decoder;
+
+  /** The input buffer {@link #view} belongs to. */
+  private ByteBuffer viewOf;
+
+  /** A view on the input whose position can be changed. */
+  private ByteBuffer view;
+
+  /** The decoded content of a single cell. */
+  private char[] chars;
+
+  /** The buffer holding the content of the last accessed cell. */
+  private char[] cur;
+
+  /** The offset of the content of the last accessed cell. */
+  private int curOff;
+
+  /**
+   * Creates an empty batch.
+   * 
+   * @param capacity The expected number of characters.
+   */
+  CSVRowBatch(final int capacity) {
+    this(capacity, false);
+  }
+
+  /**
+   * Creates an empty batch.
+   * 
+   * @param capacity The expected number of characters.
+   * @param titled Whether the first cell of every row is its title.
+   */
+  CSVRowBatch(final int capacity, final boolean titled) {
+    this.titled = titled;
+    data = new char[Math.max(capacity, 16)];
+    ends = new int[16];
+    rowEnds = new int[16];
+  }
+
+  @Override
+  public boolean cell(final char[] buf, final int off, final int len) {
+    if(bytes) {
+      if(size > 0) {
+        materialize();
+      }
+      bytes = false;
+    }
+    if(size + len > data.length) {
+      final char[] d = new char[Math.max(size + len, data.length * 2)];
+      System.arraycopy(data, 0, d, 0, size);
+      data = d;
+    }
+    System.arraycopy(buf, off, data, size, len);
+    size += len;
+    addCell(size);
+    return true;
+  }
+
+  /**
+   * Sets the charset of undecoded cells.
+   * 
+   * @param cs The charset which must be supported by
+   *          {@link CSVByteTokenizer}.
+   * @see #cellBytes(ByteBuffer, int, int)
+   */
+  void decodeWith(final Charset cs) {
+    decoder = CSVByteTokenizer.decoder(cs);
+    if(raw == null) {
+      raw = new byte[data.length];
+      rawBuf = ByteBuffer.wrap(raw);
+    }
+  }
+
+  /**
+   * Adds a cell without decoding its content. The charset needs to be set
+   * first.
+   * 
+   * @param buf The buffer holding the content. Its position and limit are not
+   *          modified.
+   * @param off The offset of the content.
+   * @param len The length of the content in bytes.
+   * @see #decodeWith(Charset)
+   */
+  void cellBytes(final ByteBuffer buf, final int off, final int len) {
+    if(!bytes) {
+      if(size > 0) throw new IllegalStateException(
+          "batch already contains decoded cells");
+      bytes = true;
+    }
+    if(size + len > raw.length) {
+      final byte[] r = new byte[Math.max(size + len, raw.length * 2)];
+      System.arraycopy(raw, 0, r, 0, size);
+      raw = r;
+      rawBuf = ByteBuffer.wrap(raw);
+    }
+    if(buf.hasArray()) {
+      System.arraycopy(buf.array(), buf.arrayOffset() + off, raw, size, len);
+    } else {
+      if(buf != viewOf) {
+        view = buf.duplicate();
+        viewOf = buf;
+      }
+      view.clear();
+      view.position(off);
+      view.get(raw, size, len);
+    }
+    size += len;
+    addCell(size);
+  }
+
+  /**
+   * Decodes all cells so that the content is stored as characters.
+   */
+  private void materialize() {
+    if(data.length < size) {
+      // the charsets never need more characters than bytes
+      data = new char[Math.max(size, data.length * 2)];
+    }
+    int s = 0;
+    int pos = 0;
+    for(int c = 0; c < cells; ++c) {
+      final int end = ends[c];
+      if(end < 0) {
+        ends[c] = ~pos;
+        continue;
+      }
+      pos += decode(s, end, data, pos);
+      ends[c] = pos;
+      s = end;
+    }
+    size = pos;
+    bytes = false;
+  }
+
+  /**
+   * Decodes undecoded content.
+   * 
+   * @param from The start of the content.
+   * @param to The end of the content (exclusive).
+   * @param out The output which must have room for one character per byte.
+   * @param pos The position in the output.
+   * @return The number of characters.
+   */
+  private int decode(final int from, final int to, final char[] out,
+      final int pos) {
+    int i = from;
+    int o = pos;
+    if(decoder == null) {
+      while(i < to) {
+        out[o++] = (char) (raw[i++] & 0xff);
+      }
+      return o - pos;
+    }
+    while(i < to && raw[i] >= 0) {
+      out[o++] = (char) raw[i++];
+    }
+    if(i == to) return o - pos;
+    // the cell contains non ASCII characters
+    final ByteBuffer src = rawBuf;
+    src.clear();
+    src.position(i);
+    src.limit(to);
+    final CharBuffer dst = CharBuffer.wrap(out);
+    dst.position(o);
+    decoder.reset();
+    decoder.decode(src, dst, true);
+    decoder.flush(dst);
+    return dst.position() - pos;
+  }
+
+  /**
+   * Provides the content of a cell as characters. Undecoded content is
+   * decoded into a separate buffer. Afterwards the content starts at
+   * {@link #curOff} in {@link #cur}.
+   * 
+   * @param cell The index of a cell that is not skipped.
+   * @return The length of the content.
+   */
+  private int content(final int cell) {
+    final int s = cell > 0 ? endOf(cell - 1) : 0;
+    final int e = ends[cell];
+    if(!bytes) {
+      cur = data;
+      curOff = s;
+      return e - s;
+    }
+    if(chars == null || chars.length < e - s) {
+      chars = new char[Math.max(e - s, 64)];
+    }
+    cur = chars;
+    curOff = 0;
+    return decode(s, e, chars, 0);
+  }
+
+  /**
+   * Tests the content of the last cell.
+   * 
+   * @param filter The filter.
+   * @param parser The number parser.
+   * @return Whether the filter keeps the row.
+   */
+  boolean testLast(final CSVFilter filter, final CSVNumbers parser) {
+    final int len = content(cells - 1);
+    return filter.test(cur, curOff, len, parser);
+  }
+
+  @Override
+  public boolean skipped() {
+    addCell(~size);
+    return true;
+  }
+
+  /**
+   * Adds the end of a cell.
+   * 
+   * @param end The end.
+   */
+  private void addCell(final int end) {
+    if(cells == ends.length) {
+      ends = grow(ends);
+    }
+    ends[cells++] = end;
+  }
+
+  @Override
+  public boolean line() {
+    if(rows == rowEnds.length) {
+      rowEnds = grow(rowEnds);
+    }
+    rowEnds[rows++] = cells;
+    return true;
+  }
+
+  /**
+   * Ends the current row.
+   * 
+   * @param index The index of the row in the input.
+   */
+  void line(final int index) {
+    line();
+    if(indices == null) {
+      indices = new int[rowEnds.length];
+    } else if(indices.length < rows) {
+      indices = Arrays.copyOf(indices, rowEnds.length);
+    }
+    indices[rows - 1] = index;
+  }
+
+  /**
+   * Doubles the size of an array.
+   * 
+   * @param arr The array.
+   * @return The new array.
+   */
+  private static int[] grow(final int[] arr) {
+    final int[] res = new int[arr.length * 2];
+    System.arraycopy(arr, 0, res, 0, arr.length);
+    return res;
+  }
+
+  /**
+   * Removes all cells and line breaks so that the batch can be reused.
+   */
+  void clear() {
+    size = 0;
+    cells = 0;
+    rows = 0;
+    viewOf = null;
+    view = null;
+  }
+
+  /**
+   * Replaces the content of this batch by the content of another batch. The
+   * copy is independent of the other batch and both must have the same row
+   * titles setting. Undecoded cells of the other batch are decoded first.
+   * 
+   * @param other The batch to copy.
+   */
+  void copy(final CSVRowBatch other) {
+    final char[] d = other.data();
+    clear();
+    bytes = false;
+    if(data.length < other.size) {
+      data = new char[Math.max(other.size, data.length * 2)];
+    }
+    System.arraycopy(d, 0, data, 0, other.size);
+    size = other.size;
+    if(ends.length < other.cells) {
+      ends = new int[other.ends.length];
+    }
+    System.arraycopy(other.ends, 0, ends, 0, other.cells);
+    cells = other.cells;
+    if(rowEnds.length < other.rows) {
+      rowEnds = new int[other.rowEnds.length];
+    }
+    System.arraycopy(other.rowEnds, 0, rowEnds, 0, other.rows);
+    rows = other.rows;
+    if(other.indices == null) {
+      indices = null;
+    } else {
+      if(indices == null || indices.length < other.rows) {
+        indices = new int[other.indices.length];
+      }
+      System.arraycopy(other.indices, 0, indices, 0, other.rows);
+    }
+    first = other.first;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the batch has neither cells nor line breaks.
+   */
+  boolean isEmpty() {
+    return cells == 0 && rows == 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether there are cells after the last line break.
+   */
+  boolean pending() {
+    return cells > (rows > 0 ? rowEnds[rows - 1] : 0);
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param first The index of the first row.
+   */
+  void setFirstRow(final int first) {
+    this.first = first;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The index of the first row of the batch in the input.
+   */
+  public int firstRow() {
+    return first;
+  }
+
+  /**
+   * Getter. The rows of a batch are consecutive in the input unless rows are
+   * dropped by filters.
+   * 
+   * @param row The row in the batch.
+   * @return The index of the row in the input.
+   * @see CSVReader#addFilter(CSVFilter)
+   */
+  public int row(final int row) {
+    rowStart(row);
+    return indices != null ? indices[row] : first + row;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of rows ended by a line break.
+   */
+  public int rows() {
+    return rows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The buffer containing the content of all cells. The buffer is
+   *         shared by all cells and must not be changed.
+   */
+  public char[] data() {
+    if(bytes) {
+      materialize();
+    }
+    return data;
+  }
+
+  /**
+   * Computes the index of a cell.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return The index of the cell.
+   * @throws IndexOutOfBoundsException If the row or the cell does not exist.
+   */
+  private int index(final int row, final int col) {
+    if(col < 0 || col >= size(row)) throw new IndexOutOfBoundsException(
+        "no cell " + row + ":" + col);
+    return rowStart(row) + col + (titled ? 1 : 0);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @return The index of the first cell of the row.
+   */
+  private int rowStart(final int row) {
+    if(row < 0 || row >= rows) throw new IndexOutOfBoundsException(
+        "no row " + row);
+    return row > 0 ? rowEnds[row - 1] : 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param cell The index of the cell.
+   * @return The end of the content of the cell.
+   */
+  private int endOf(final int cell) {
+    final int end = ends[cell];
+    return end < 0 ? ~end : end;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @return The title of the row or <code>null</code> if there are no row
+   *         titles.
+   */
+  public String rowName(final int row) {
+    final int c = rowStart(row);
+    if(!titled || c == rowEnds[row] || ends[c] < 0) return null;
+    final int len = content(c);
+    return new String(cur, curOff, len);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @return The number of columns of the row. Cells of columns that are not
+   *         selected at the end of the row are counted as well.
+   */
+  public int size(final int row) {
+    final int n = rowEnds[row] - rowStart(row);
+    return titled ? Math.max(n - 1, 0) : n;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return Whether the row has a cell with content in the given column.
+   *         Cells of columns that are not selected have no content.
+   */
+  public boolean has(final int row, final int col) {
+    return col >= 0 && col < size(row) && ends[index(row, col)] >= 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return The start of the content of the cell in {@link #data()}.
+   * @throws IndexOutOfBoundsException If the cell does not exist.
+   */
+  public int start(final int row, final int col) {
+    final int c = index(row, col);
+    if(bytes) {
+      materialize();
+    }
+    return c > 0 ? endOf(c - 1) : 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return The end of the content of the cell in {@link #data()}
+   *         (exclusive).
+   * @throws IndexOutOfBoundsException If the cell does not exist.
+   */
+  public int end(final int row, final int col) {
+    final int c = index(row, col);
+    if(bytes) {
+      materialize();
+    }
+    return endOf(c);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return The content of the cell as string or <code>null</code> if the
+   *         cell is missing.
+   */
+  public String getString(final int row, final int col) {
+    if(!has(row, col)) return null;
+    final int len = content(index(row, col));
+    return new String(cur, curOff, len);
+  }
+
+  /**
+   * Parses a cell as long without creating a string.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return The content of the cell.
+   * @throws NumberFormatException If the cell is missing or not a valid long.
+   */
+  public long getLong(final int row, final int col) {
+    if(parser == null) {
+      parser = new CSVNumbers();
+    }
+    final int len = has(row, col) ? content(index(row, col)) : -1;
+    if(len < 0 || !parser.parseLong(cur, curOff, len)) {
+      throw new NumberFormatException("For input string: \""
+          + getString(row, col) + "\"");
+    }
+    return parser.longValue();
+  }
+
+  /**
+   * Parses a cell as double without creating a string.
+   * 
+   * @param row The row in the batch.
+   * @param col The column.
+   * @return The content of the cell.
+   * @throws NumberFormatException If the cell is missing or not a valid
+   *           double.
+   */
+  public double getDouble(final int row, final int col) {
+    if(parser == null) {
+      parser = new CSVNumbers();
+    }
+    final int len = has(row, col) ? content(index(row, col)) : -1;
+    if(len < 0 || !parser.parseDouble(cur, curOff, len)) {
+      throw new NumberFormatException("For input string: \""
+          + getString(row, col) + "\"");
+    }
+    return parser.doubleValue();
+  }
+
+  /**
+   * Passes all cells and line breaks to the given sink in the order they were
+   * added.
+   * 
+   * @param sink The sink.
+   */
+  void replay(final CSVSink sink) {
+    if(bytes) {
+      materialize();
+    }
+    int c = 0;
+    int start = 0;
+    for(int r = 0; r < rows; ++r) {
+      start = replay(sink, c, rowEnds[r], start);
+      c = rowEnds[r];
+      sink.line();
+    }
+    replay(sink, c, cells, start);
+  }
+
+  /**
+   * Passes a range of cells to the given sink.
+   * 
+   * @param sink The sink.
+   * @param from The first cell.
+   * @param to The end of the cells (exclusive).
+   * @param start The start of the content of the first cell.
+   * @return The end of the content of the last cell.
+   */
+  private int replay(final CSVSink sink, final int from, final int to,
+      final int start) {
+    int s = start;
+    for(int c = from; c < to; ++c) {
+      final int end = ends[c];
+      if(end < 0) {
+        sink.skipped();
+        continue;
+      }
+      sink.cell(data, s, end - s);
+      s = end;
+    }
+    return s;
+  }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the ends of rows in bytes without splitting them into cells. This is
+ * a reduced version of the state machine of {@link CSVByteTokenizer} that only
+ * keeps track of strings. Since the state at an arbitrary position of a file is
+ * not known in advance the scanner follows all possible states at once.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVRowScanner {
+
+  /** The state at the beginning of a cell. */
+  static final int CELL = 0;
+
+  /** The state in the middle of a cell. */
+  static final int PLAIN = 1;
+
+  /** The state inside of a string. */
+  static final int STRING = 2;
+
+  /** The state after a string delimiter inside of a string. */
+  static final int END_STRING = 3;
+
+  /** The number of possible states. */
+  static final int STATES = 4;
+
+  /** The class of ordinary bytes. */
+  private static final int OTHER = 0;
+
+  /** The class of the string delimiter. */
+  private static final int QUOTE = 1;
+
+  /** The class of the cell delimiter. */
+  private static final int DELIM = 2;
+
+  /** The class of the line break. */
+  private static final int LINE = 3;
+
+  /** The class of the ignored line break. */
+  private static final int IGNORE = 4;
+
+  /** The number of classes. */
+  private static final int CLASSES = 5;
+
+  /** The next state of a single state by class. */
+  private static final int[][] NEXT = {
+      // OTHER, QUOTE, DELIM, LINE, IGNORE
+      { PLAIN, STRING, CELL, CELL, CELL}, // CELL
+      { PLAIN, PLAIN, CELL, CELL, PLAIN}, // PLAIN
+      { STRING, END_STRING, STRING, STRING, STRING}, // STRING
+      { PLAIN, STRING, CELL, CELL, END_STRING}, // END_STRING
+  };
+
+  /** Whether a single state ends a row by class. */
+  private static final boolean[][] ENDS = {
+      { false, false, false, true, false}, // CELL
+      { false, false, false, true, false}, // PLAIN
+      { false, false, false, false, false}, // STRING
+      { false, false, false, true, false}, // END_STRING
+  };
+
+  /**
+   * The initial combined state. Every possible state is the current state of
+   * the position with the same index.
+   */
+  static final int ALL = CELL | PLAIN << 2 | STRING << 4 | END_STRING << 6;
+
+  /** The next combined state by combined state and class. */
+  private static final int[] ALL_NEXT;
+
+  /** The possible states that end a row by combined state and class. */
+  private static final int[] ALL_ENDS;
+
+  static {
+    ALL_NEXT = new int[256 * CLASSES];
+    ALL_ENDS = new int[256 * CLASSES];
+    for(int s = 0; s < 256; ++s) {
+      for(int c = 0; c < CLASSES; ++c) {
+        int next = 0;
+        int ends = 0;
+        for(int h = 0; h < STATES; ++h) {
+          final int cur = state(s, h);
+          next |= NEXT[cur][c] << (2 * h);
+          if(ENDS[cur][c]) {
+            ends |= 1 << h;
+          }
+        }
+        ALL_NEXT[s * CLASSES + c] = next;
+        ALL_ENDS[s * CLASSES + c] = ends;
+      }
+    }
+  }
+
+  /**
+   * Extracts a single state from a combined state.
+   * 
+   * @param all The combined state.
+   * @param start The state the combined state started with.
+   * @return The current state for the given start state.
+   */
+  static int state(final int all, final int start) {
+    return (all >> (2 * start)) & 3;
+  }
+
+  /**
+   * Finds the first line break in the given range.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param end The end (exclusive).
+   * @return The position of the first line break or <code>-1</code>.
+   */
+  static int findLine(final ByteBuffer buf, final int off, final int end) {
+    for(int i = off; i < end; ++i) {
+      final byte b = buf.get(i);
+      if(b == '\r' || b == '\n') return i;
+    }
+    return -1;
+  }
+
+  /**
+   * The result of a scan.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  static final class Result {
+
+    /** The number of row ends by start state. */
+    final int[] rows = new int[STATES];
+
+    /** The position after the first row end by start state or -1. */
+    final long[] first = { -1L, -1L, -1L, -1L};
+
+    /** The combined state at the end of the scan. */
+    int state = ALL;
+
+    /**
+     * Getter.
+     * 
+     * @param start The state at the beginning of the scan.
+     * @return The state at the end of the scan.
+     */
+    int end(final int start) {
+      return state(state, start);
+    }
+
+  }
+
+  /** The classes of bytes before the line break is known. */
+  private final byte[] unknown;
+
+  /** The classes of bytes after the line break is known. */
+  private final byte[] known;
+
+  /** The cell delimiter in every byte. */
+  private final long delPattern;
+
+  /** The string delimiter in every byte. */
+  private final long strPattern;
+
+  /**
+   * Creates a scanner.
+   * 
+   * @param delimiter The cell delimiter.
+   * @param string The string delimiter.
+   * @param line The line break which is <code>'\r'</code> or <code>'\n'</code>
+   *          .
+   */
+  public CSVRowScanner(final char delimiter, final char string,
+      final byte line) {
+    unknown = new byte[256];
+    known = new byte[256];
+    // before the first line break a zero byte is treated as line break
+    unknown[0] = LINE;
+    known[line] = LINE;
+    known[line == '\r' ? '\n' : '\r'] = IGNORE;
+    unknown[delimiter] = DELIM;
+    known[delimiter] = DELIM;
+    unknown[string] = QUOTE;
+    known[string] = QUOTE;
+    delPattern = CSVBytes.pattern((byte) delimiter);
+    strPattern = CSVBytes.pattern((byte) string);
+  }
+
+  /**
+   * Scans a range of bytes for every possible start state. The result can be
+   * updated by consecutive ranges.
+   * 
+   * @param res The result that is updated.
+   * @param buf The buffer.
+   * @param off The offset of the buffer in the file.
+   * @param from The first byte to scan.
+   * @param to The end of the range (exclusive).
+   * @param lineKnown Whether the line break already occurred before this
+   *          range. Otherwise the range must not contain any line breaks.
+   */
+  public void scan(final Result res, final ByteBuffer buf, final long off,
+      final int from, final int to, final boolean lineKnown) {
+    final byte[] cls = lineKnown ? known : unknown;
+    final int[] next = ALL_NEXT;
+    int s = res.state;
+    for(int i = from; i < to; ++i) {
+      final int j = CSVBytes.find(buf, i, to, delPattern, strPattern);
+      if(j > i) {
+        // a run of ordinary bytes has the same effect as a single one
+        s = next[s * CLASSES + OTHER];
+        if(j == to) {
+          break;
+        }
+        i = j;
+      }
+      final int pos = s * CLASSES + cls[buf.get(i) & 0xff];
+      final int ends = ALL_ENDS[pos];
+      s = next[pos];
+      if(ends != 0) {
+        for(int h = 0; h < STATES; ++h) {
+          if((ends & (1 << h)) != 0 && res.rows[h]++ == 0) {
+            res.first[h] = off + i + 1;
+          }
+        }
+      }
+    }
+    res.state = s;
+  }
+
+}
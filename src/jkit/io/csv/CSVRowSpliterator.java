@@ -0,0 +1,251 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import jkit.io.csv.CSVParallel.Segment;
+
+/**
+ * Splits the rows of a file. As long as the spliterator is not split the rows
+ * are read sequentially. The first split divides the file into segments of
+ * complete rows like {@link CSVParallel} which respects strings spanning
+ * multiple lines. Further splits divide the remaining segments. Every
+ * segment is read directly from the mapped file.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVRowSpliterator implements Spliterator<CSVRow> {
+
+  /**
+   * The state shared by all parts of a split.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Source {
+
+    /** The reader. */
+    final CSVReader reader;
+
+    /** The file. */
+    final FileChannel ch;
+
+    /** The charset. */
+    final Charset cs;
+
+    /** The segments or <code>null</code> if the file was not split yet. */
+    List<Segment> segs;
+
+    /** Whether the file cannot be split. */
+    boolean whole;
+
+    /** The line break of the file. */
+    byte line;
+
+    /** The column titles or <code>null</code>. */
+    String[] titles;
+
+    /**
+     * Creates the shared state.
+     * 
+     * @param reader The reader.
+     * @param ch The file.
+     * @param cs The charset.
+     */
+    Source(final CSVReader reader, final FileChannel ch, final Charset cs) {
+      this.reader = reader;
+      this.ch = ch;
+      this.cs = cs;
+    }
+
+  }
+
+  /** The shared state. */
+  private final Source src;
+
+  /** The current cursor or <code>null</code>. */
+  private CSVCursor cur;
+
+  /** Whether the file was read sequentially until its end. */
+  private boolean done;
+
+  /** The next segment. */
+  private int lo;
+
+  /** The end of the segments (exclusive). */
+  private int hi;
+
+  /**
+   * Creates a spliterator for the remaining rows of a file.
+   * 
+   * @param reader The reader.
+   * @param ch The file.
+   * @param cs The charset of the file.
+   */
+  public CSVRowSpliterator(final CSVReader reader, final FileChannel ch,
+      final Charset cs) {
+    this(new Source(reader, ch, cs), 0, 0, null);
+  }
+
+  /**
+   * Creates a part of a split.
+   * 
+   * @param src The shared state.
+   * @param lo The next segment.
+   * @param hi The end of the segments (exclusive).
+   * @param cur The current cursor.
+   */
+  private CSVRowSpliterator(final Source src, final int lo, final int hi,
+      final CSVCursor cur) {
+    this.src = src;
+    this.lo = lo;
+    this.hi = hi;
+    this.cur = cur;
+  }
+
+  @Override
+  public boolean tryAdvance(final Consumer<? super CSVRow> action) {
+    if(done) return false;
+    try {
+      if(src.segs == null && cur == null) {
+        // read sequentially since the file was not split
+        cur = src.reader.cursor(Channels.newInputStream(src.ch), src.cs);
+      }
+      while(cur == null || !cur.next()) {
+        if(cur != null) {
+          cur.close();
+          cur = null;
+        }
+        if(src.segs == null || lo >= hi) {
+          done = true;
+          return false;
+        }
+        cur = open(lo++);
+      }
+    } catch(final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final String[] cells = new String[cur.size()];
+    for(int i = 0; i < cells.length; ++i) {
+      cells[i] = cur.getString(i);
+    }
+    action.accept(new CSVRow(cur.row(), cur.rowName(), cells));
+    return true;
+  }
+
+  /**
+   * Opens a cursor for a segment.
+   * 
+   * @param index The index of the segment.
+   * @return The cursor.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  private CSVCursor open(final int index) throws IOException {
+    final CSVCursor c = cursor(src.reader, index);
+    if(index > 0) {
+      c.resume(src.line, src.segs.get(index).row, src.titles);
+    }
+    return c;
+  }
+
+  /**
+   * Creates a cursor for a segment without continuing from the previous
+   * segments.
+   * 
+   * @param reader The reader providing the configuration.
+   * @param index The index of the segment.
+   * @return The cursor.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  private CSVCursor cursor(final CSVReader reader, final int index)
+      throws IOException {
+    final Segment seg = src.segs.get(index);
+    final long len = seg.to - seg.from;
+    if(len > Integer.MAX_VALUE) throw new IOException(
+        "row too long at " + seg.from);
+    return new CSVCursor(reader, src.ch.map(MapMode.READ_ONLY, seg.from,
+        len), src.cs);
+  }
+
+  @Override
+  public Spliterator<CSVRow> trySplit() {
+    if(src.segs == null) {
+      if(cur != null || done || src.whole) return null;
+      try {
+        if(!split()) return null;
+      } catch(final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      lo = 0;
+      hi = src.segs.size();
+    }
+    if(hi - lo < 2) return null;
+    final int mid = (lo + hi) >>> 1;
+    final CSVRowSpliterator prefix = new CSVRowSpliterator(src, lo, mid, cur);
+    cur = null;
+    lo = mid;
+    return prefix;
+  }
+
+  /**
+   * Divides the file into segments.
+   * 
+   * @return Whether the file can be divided.
+   * @throws IOException If an I/O Exception occurs.
+   */
+  private boolean split() throws IOException {
+    final CSVReader reader = src.reader;
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    final CSVParallel par = reader.parallel(src.ch, src.cs, pool,
+        2 * pool.getParallelism());
+    if(!par.prepare()) {
+      src.whole = true;
+      return false;
+    }
+    final List<Segment> segs = par.segments(reader.readColTitles() ? -1 : 0);
+    src.line = par.line();
+    src.segs = segs;
+    if(reader.readColTitles()) {
+      // all segments need the titles to select or filter columns by name
+      final CSVReader titles = reader.copy();
+      titles.clearFilters();
+      final CSVCursor c = cursor(titles, 0);
+      c.next();
+      src.titles = c.ctx.colNames();
+    }
+    return true;
+  }
+
+  @Override
+  public long estimateSize() {
+    if(src.segs == null) {
+      try {
+        return src.ch.size() - src.ch.position();
+      } catch(final IOException e) {
+        return Long.MAX_VALUE;
+      }
+    }
+    long res = cur != null ? 1 : 0;
+    for(int i = lo; i < hi; ++i) {
+      final Segment seg = src.segs.get(i);
+      res += seg.to - seg.from;
+    }
+    return res;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL | IMMUTABLE;
+  }
+
+}
@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * Receives the cells and line breaks found by a tokenizer. After every call
+ * the sink tells whether it needs the content of the next cell. Cells whose
+ * content is not needed are still scanned but neither buffered nor decoded.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+interface CSVSink {
+
+  /**
+   * Is called for every cell. The content is only valid during the call.
+   * 
+   * @param buf The buffer holding the content.
+   * @param off The offset of the content.
+   * @param len The length of the content.
+   * @return Whether the content of the next cell is needed.
+   */
+  boolean cell(char[] buf, int off, int len);
+
+  /**
+   * Is called instead of {@link #cell(char[], int, int)} for every cell whose
+   * content is not needed.
+   * 
+   * @return Whether the content of the next cell is needed.
+   */
+  boolean skipped();
+
+  /**
+   * Is called at the end of every line. The line has at least one cell.
+   * 
+   * @return Whether the content of the first cell of the next line is needed.
+   */
+  boolean line();
+
+}
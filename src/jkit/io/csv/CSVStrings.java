@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of strings per column. Repeated contents of a column are
+ * returned as the same string instance. The cache of a column is looked up
+ * by hashing the characters before a string is created. Each slot holds the
+ * last string that hashed to it so a cache never holds more than its size.
+ * Columns whose contents rarely repeat stop being cached.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVStrings {
+
+  /**
+   * The number of lookups relative to the size of a cache after which the
+   * hit rate of a column is checked.
+   */
+  private static final int WINDOW = 4;
+
+  /**
+   * The cache of a column.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Cache {
+
+    /** The slots or <code>null</code> if the column is not cached anymore. */
+    String[] slots;
+
+    /** The number of lookups since the last check. */
+    int lookups;
+
+    /** The number of hits since the last check. */
+    int hits;
+
+    /**
+     * Creates a cache.
+     * 
+     * @param size The number of slots.
+     */
+    Cache(final int size) {
+      slots = new String[size];
+    }
+
+  }
+
+  /** The number of slots per column. */
+  private final int size;
+
+  /** The caches by column. Row titles are at index zero. */
+  private Cache[] caches;
+
+  /**
+   * Creates a cache.
+   * 
+   * @param size The maximal number of strings per column. The number of
+   *          slots is the largest power of two that does not exceed it.
+   */
+  public CSVStrings(final int size) {
+    this.size = Integer.highestOneBit(Math.max(size, 1));
+    caches = new Cache[16];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column or <code>-1</code> for row titles.
+   * @param buf The buffer.
+   * @param off The offset of the content.
+   * @param len The length of the content.
+   * @return The content as string.
+   */
+  public String get(final int col, final char[] buf, final int off,
+      final int len) {
+    final Cache c = cache(col + 1);
+    final String[] slots = c.slots;
+    if(slots == null) return new String(buf, off, len);
+    final int h = CSVChars.hash(buf, off, len);
+    final int i = CSVDictionary.mix(h) & (slots.length - 1);
+    String s = slots[i];
+    if(s != null && s.hashCode() == h && equal(s, buf, off, len)) {
+      ++c.hits;
+    } else {
+      s = new String(buf, off, len);
+      slots[i] = s;
+    }
+    if(++c.lookups == WINDOW * slots.length) {
+      if(c.hits < c.lookups / WINDOW) {
+        // the column has too many distinct values
+        c.slots = null;
+      }
+      c.lookups = 0;
+      c.hits = 0;
+    }
+    return s;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param index The index of the cache.
+   * @return The cache which is created if necessary.
+   */
+  private Cache cache(final int index) {
+    if(index >= caches.length) {
+      caches = Arrays.copyOf(caches, Math.max(index + 1, caches.length * 2));
+    }
+    Cache c = caches[index];
+    if(c == null) {
+      c = new Cache(size);
+      caches[index] = c;
+    }
+    return c;
+  }
+
+  /**
+   * Compares a string with a range of a buffer.
+   * 
+   * @param str The string.
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param len The length.
+   * @return Whether both have the same content.
+   */
+  private static boolean equal(final String str, final char[] buf,
+      final int off, final int len) {
+    if(str.length() != len) return false;
+    for(int i = 0; i < len; ++i) {
+      if(str.charAt(i) != buf[off + i]) return false;
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,468 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.util.Arrays;
+
+/**
+ * A csv file stored column by column. Numeric columns are stored as arrays of
+ * primitives and text columns as codes into a dictionary of their distinct
+ * values. Cells that are not present or are no valid number in a numeric
+ * column are missing.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ * @see CSVTableHandler
+ */
+public final class CSVTable {
+
+  /**
+   * The type of a column.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  public static enum Type {
+    /** Integers. */
+    INT,
+    /** Longs. */
+    LONG,
+    /** Doubles. */
+    DOUBLE,
+    /** Dictionary encoded strings. */
+    STRING,
+    /* end of declaration */;
+  }
+
+  /**
+   * A growing column.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  static final class Column {
+
+    /** The type. */
+    Type type;
+
+    /** The number of rows. */
+    int size;
+
+    /** The values of long columns. */
+    long[] longs;
+
+    /** The values of int columns. */
+    int[] ints;
+
+    /** The values of double columns. */
+    double[] doubles;
+
+    /** The codes of string columns. */
+    int[] codes;
+
+    /** The dictionary of string columns. */
+    CSVDictionary dict;
+
+    /** The missing rows or <code>null</code> if no row is missing. */
+    long[] missing;
+
+    /**
+     * Creates a column.
+     * 
+     * @param type The type which is either {@link Type#LONG},
+     *          {@link Type#DOUBLE}, or {@link Type#STRING}.
+     */
+    Column(final Type type) {
+      this.type = type;
+      switch(type) {
+        case LONG:
+          longs = new long[16];
+          break;
+        case DOUBLE:
+          doubles = new double[16];
+          break;
+        default:
+          codes = new int[16];
+          dict = new CSVDictionary();
+          break;
+      }
+    }
+
+    /**
+     * Advances to the given row. Skipped rows are missing. Rows can also be
+     * set out of order.
+     * 
+     * @param row The row.
+     */
+    private void seek(final int row) {
+      if(row < size) {
+        if(missing != null && (row >> 6) < missing.length) {
+          missing[row >> 6] &= ~(1L << row);
+        }
+        return;
+      }
+      final int cap = longs != null ? longs.length
+          : doubles != null ? doubles.length : codes.length;
+      if(row >= cap) {
+        final int len = Math.max(row + 1, cap * 2);
+        if(longs != null) {
+          longs = Arrays.copyOf(longs, len);
+        } else if(doubles != null) {
+          doubles = Arrays.copyOf(doubles, len);
+        } else {
+          codes = Arrays.copyOf(codes, len);
+        }
+      }
+      while(size < row) {
+        setMissing(size++);
+      }
+      size = row + 1;
+    }
+
+    /**
+     * Marks a row as missing.
+     * 
+     * @param row The row.
+     */
+    private void setMissing(final int row) {
+      if(missing == null) {
+        missing = new long[(row >> 6) + 1];
+      } else if((row >> 6) >= missing.length) {
+        missing = Arrays.copyOf(missing,
+            Math.max((row >> 6) + 1, missing.length * 2));
+      }
+      missing[row >> 6] |= 1L << row;
+      if(codes != null) {
+        codes[row] = -1;
+      } else if(doubles != null) {
+        doubles[row] = Double.NaN;
+      }
+    }
+
+    /**
+     * Sets a long value.
+     * 
+     * @param row The row.
+     * @param v The value.
+     */
+    void setLong(final int row, final long v) {
+      seek(row);
+      if(longs != null) {
+        longs[row] = v;
+      } else if(doubles != null) {
+        doubles[row] = v;
+      } else {
+        codes[row] = dict.code(Long.toString(v));
+      }
+    }
+
+    /**
+     * Sets a double value.
+     * 
+     * @param row The row.
+     * @param v The value.
+     */
+    void setDouble(final int row, final double v) {
+      seek(row);
+      if(doubles != null) {
+        doubles[row] = v;
+      } else if(codes != null) {
+        codes[row] = dict.code(Double.toString(v));
+      } else {
+        setMissing(row);
+      }
+    }
+
+    /**
+     * Sets a text value. Text in numeric columns is missing.
+     * 
+     * @param row The row.
+     * @param content The content.
+     */
+    void setText(final int row, final CharSequence content) {
+      seek(row);
+      if(codes != null) {
+        codes[row] = dict.code(content);
+      } else {
+        setMissing(row);
+      }
+    }
+
+    /**
+     * Finishes the column. The arrays are trimmed to the number of rows and
+     * long columns whose values all fit into integers become int columns.
+     * 
+     * @param rows The number of rows.
+     */
+    void finish(final int rows) {
+      if(size < rows) {
+        seek(rows - 1);
+        setMissing(rows - 1);
+      }
+      size = rows;
+      if(missing != null) {
+        missing = Arrays.copyOf(missing, (rows + 63) >> 6);
+      }
+      if(longs != null) {
+        longs = Arrays.copyOf(longs, rows);
+        for(final long l : longs) {
+          if(l != (int) l) return;
+        }
+        ints = new int[rows];
+        for(int i = 0; i < rows; ++i) {
+          ints[i] = (int) longs[i];
+        }
+        longs = null;
+        type = Type.INT;
+      } else if(doubles != null) {
+        doubles = Arrays.copyOf(doubles, rows);
+      } else {
+        codes = Arrays.copyOf(codes, rows);
+      }
+    }
+
+  }
+
+  /** The column titles. */
+  private final String[] names;
+
+  /** The row titles or <code>null</code>. */
+  private final String[] rowNames;
+
+  /** The columns. */
+  private final Column[] columns;
+
+  /** The number of rows. */
+  private final int rows;
+
+  /**
+   * Creates a table.
+   * 
+   * @param names The column titles.
+   * @param rowNames The row titles or <code>null</code>.
+   * @param columns The finished columns.
+   * @param rows The number of rows.
+   */
+  CSVTable(final String[] names, final String[] rowNames,
+      final Column[] columns, final int rows) {
+    this.names = names;
+    this.rowNames = rowNames;
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of rows.
+   */
+  public int rows() {
+    return rows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of columns.
+   */
+  public int cols() {
+    return columns.length;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The title of the column or <code>null</code> if there are no
+   *         column titles.
+   */
+  public String colName(final int col) {
+    return col < names.length ? names[col] : null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @return The title of the row or <code>null</code> if there are no row
+   *         titles.
+   */
+  public String rowName(final int row) {
+    return rowNames != null ? rowNames[row] : null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The type of the column.
+   */
+  public Type type(final int col) {
+    return columns[col].type;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @param col The column.
+   * @return Whether the cell is missing.
+   */
+  public boolean isMissing(final int row, final int col) {
+    if(row < 0 || row >= rows) throw new IndexOutOfBoundsException("" + row);
+    final long[] m = columns[col].missing;
+    return m != null && (m[row >> 6] & (1L << row)) != 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @param col The column which must be an int column.
+   * @return The value or <code>0</code> if the cell is missing.
+   */
+  public int getInt(final int row, final int col) {
+    return column(col, Type.INT).ints[row];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @param col The column which must be an int or long column.
+   * @return The value or <code>0</code> if the cell is missing.
+   */
+  public long getLong(final int row, final int col) {
+    final Column c = columns[col];
+    if(c.type == Type.INT) return c.ints[row];
+    return column(col, Type.LONG).longs[row];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @param col The column which must be a numeric column.
+   * @return The value or {@link Double#NaN} if the cell is missing.
+   */
+  public double getDouble(final int row, final int col) {
+    final Column c = columns[col];
+    switch(c.type) {
+      case INT:
+        return isMissing(row, col) ? Double.NaN : c.ints[row];
+      case LONG:
+        return isMissing(row, col) ? Double.NaN : c.longs[row];
+      default:
+        return column(col, Type.DOUBLE).doubles[row];
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @param col The column.
+   * @return The content of the cell or <code>null</code> if the cell is
+   *         missing. Numbers are converted to strings.
+   */
+  public String getString(final int row, final int col) {
+    if(isMissing(row, col)) return null;
+    final Column c = columns[col];
+    switch(c.type) {
+      case INT:
+        return Integer.toString(c.ints[row]);
+      case LONG:
+        return Long.toString(c.longs[row]);
+      case DOUBLE:
+        return Double.toString(c.doubles[row]);
+      default:
+        return c.dict.get(c.codes[row]);
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param row The row.
+   * @param col The column which must be a string column.
+   * @return The dictionary code of the cell or <code>-1</code> if the cell is
+   *         missing.
+   */
+  public int getCode(final int row, final int col) {
+    return column(col, Type.STRING).codes[row];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column which must be a string column.
+   * @return The number of distinct values of the column.
+   */
+  public int dictionarySize(final int col) {
+    return column(col, Type.STRING).dict.size();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column which must be a string column.
+   * @param code The code.
+   * @return The value with the given code.
+   */
+  public String dictionary(final int col, final int code) {
+    return column(col, Type.STRING).dict.get(code);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column which must be an int column.
+   * @return A copy of the values.
+   */
+  public int[] ints(final int col) {
+    return column(col, Type.INT).ints.clone();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column which must be a long column.
+   * @return A copy of the values.
+   */
+  public long[] longs(final int col) {
+    return column(col, Type.LONG).longs.clone();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column which must be a double column.
+   * @return A copy of the values.
+   */
+  public double[] doubles(final int col) {
+    return column(col, Type.DOUBLE).doubles.clone();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column which must be a string column.
+   * @return A copy of the codes.
+   */
+  public int[] codes(final int col) {
+    return column(col, Type.STRING).codes.clone();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @param type The expected type.
+   * @return The column.
+   */
+  private Column column(final int col, final Type type) {
+    final Column c = columns[col];
+    if(c.type != type) throw new IllegalArgumentException("column " + col
+        + " is of type " + c.type + " not " + type);
+    return c;
+  }
+
+}
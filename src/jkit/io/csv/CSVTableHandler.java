@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+import java.util.Arrays;
+
+/**
+ * Loads a csv file into a {@link CSVTable}. The column types are taken from
+ * the reader. Columns set as long columns by
+ * {@link CSVReader#setLongColumns(int...)} become int or long columns and
+ * columns set as double columns by {@link CSVReader#setDoubleColumns(int...)}
+ * become double columns. All other columns become string columns. The table
+ * can be obtained by {@link #table()} after reading.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+public class CSVTableHandler implements CSVCharHandler, CSVNumberHandler {
+
+  /** The long columns of the reader. */
+  private int[] longCols;
+
+  /** The double columns of the reader. */
+  private int[] doubleCols;
+
+  /** The column titles. */
+  private String[] names;
+
+  /** The number of column titles. */
+  private int titles;
+
+  /** The row titles or <code>null</code>. */
+  private String[] rowNames;
+
+  /** The columns. */
+  private CSVTable.Column[] columns;
+
+  /** The number of columns. */
+  private int cols;
+
+  /** The number of rows. */
+  private int rows;
+
+  /** The table. */
+  private CSVTable table;
+
+  @Override
+  public void start(final CSVContext ctx) {
+    final CSVReader reader = ctx.reader();
+    longCols = reader.longColumns();
+    doubleCols = reader.doubleColumns();
+    names = new String[16];
+    titles = 0;
+    rowNames = reader.readRowTitles() ? new String[16] : null;
+    columns = new CSVTable.Column[16];
+    cols = 0;
+    rows = 0;
+    table = null;
+  }
+
+  @Override
+  public void colTitle(final CSVContext ctx, final String title) {
+    final int col = ctx.col();
+    if(col >= names.length) {
+      names = Arrays.copyOf(names, Math.max(col + 1, names.length * 2));
+    }
+    names[col] = title;
+    titles = Math.max(titles, col + 1);
+  }
+
+  @Override
+  public void rowTitle(final CSVContext ctx, final String title) {
+    final int row = ctx.row();
+    rows = Math.max(rows, row + 1);
+    if(row >= rowNames.length) {
+      rowNames = Arrays.copyOf(rowNames,
+          Math.max(row + 1, rowNames.length * 2));
+    }
+    rowNames[row] = title;
+  }
+
+  @Override
+  public void row(final CSVContext ctx) {
+    rows = Math.max(rows, ctx.row() + 1);
+  }
+
+  @Override
+  public void cell(final CSVContext ctx, final String content) {
+    cellChars(ctx, content);
+  }
+
+  @Override
+  public void cellChars(final CSVContext ctx, final CharSequence content) {
+    column(ctx.col()).setText(ctx.row(), content);
+  }
+
+  @Override
+  public void cellLong(final CSVContext ctx, final long content) {
+    column(ctx.col()).setLong(ctx.row(), content);
+  }
+
+  @Override
+  public void cellDouble(final CSVContext ctx, final double content) {
+    column(ctx.col()).setDouble(ctx.row(), content);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The column which is created if necessary.
+   */
+  private CSVTable.Column column(final int col) {
+    if(col >= columns.length) {
+      columns = Arrays.copyOf(columns, Math.max(col + 1, columns.length * 2));
+    }
+    CSVTable.Column c = columns[col];
+    if(c == null) {
+      c = new CSVTable.Column(type(col));
+      columns[col] = c;
+      cols = Math.max(cols, col + 1);
+    }
+    return c;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param col The column.
+   * @return The type of the column while reading.
+   */
+  private CSVTable.Type type(final int col) {
+    for(final int c : longCols) {
+      if(c == col) return CSVTable.Type.LONG;
+    }
+    for(final int c : doubleCols) {
+      if(c == col) return CSVTable.Type.DOUBLE;
+    }
+    return CSVTable.Type.STRING;
+  }
+
+  @Override
+  public void end(final CSVContext ctx) {
+    final int n = Math.max(cols, titles);
+    final CSVTable.Column[] res = new CSVTable.Column[n];
+    for(int i = 0; i < n; ++i) {
+      final CSVTable.Column c = i < columns.length && columns[i] != null
+          ? columns[i] : new CSVTable.Column(type(i));
+      c.finish(rows);
+      res[i] = c;
+    }
+    final String[] rn = rowNames != null ? Arrays.copyOf(rowNames, rows)
+        : null;
+    table = new CSVTable(Arrays.copyOf(names, titles), rn, res, rows);
+    columns = null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The table of the last file that was read completely or
+   *         <code>null</code>.
+   */
+  public CSVTable table() {
+    return table;
+  }
+
+}
@@ -0,0 +1,295 @@
+/**
+ * 
+ */
+package jkit.io.csv;
+
+/**
+ * Splits blocks of characters into cells. The blocks can be of arbitrary size
+ * and the state is kept between calls to {@link #feed(char[], int, int)}.
+ * Runs of ordinary characters are scanned in tight loops and copied in bulk.
+ * Only special characters are passed through the full state machine.
+ * 
+ * @author Joschi <josua.krause@googlemail.com>
+ */
+final class CSVTokenizer {
+
+  /** The line separator that replaces line breaks inside of strings. */
+  private static final char[] NL = System.getProperty("line.separator")
+      .toCharArray();
+
+  /** The sink. */
+  private final CSVSink sink;
+
+  /** The cell delimiter. */
+  private final char delimiter;
+
+  /** The string delimiter. */
+  private final char string;
+
+  /** Whether runs of ordinary characters can be scanned in bulk. */
+  private final boolean fast;
+
+  /** The line break character that is ignored. */
+  private char ignore;
+
+  /** The line break character. */
+  private char line;
+
+  /** Whether a string may start at the current position. */
+  private boolean canString;
+
+  /** Whether we are inside of a string. */
+  private boolean isString;
+
+  /** Whether the last character was a string delimiter inside a string. */
+  private boolean endString;
+
+  /** Whether the last character was a line break. */
+  private boolean afterLn;
+
+  /** Whether characters were read since the last cell. */
+  private boolean current;
+
+  /** Whether the content of the current cell is needed. */
+  private boolean capture;
+
+  /** Whether processing stops after the current line. */
+  private boolean pause;
+
+  /** The content of the current cell. */
+  private char[] cell;
+
+  /** The length of the current cell. */
+  private int len;
+
+  /**
+   * Creates a tokenizer.
+   * 
+   * @param sink The sink receiving the cells.
+   * @param delimiter The cell delimiter.
+   * @param string The string delimiter.
+   */
+  public CSVTokenizer(final CSVSink sink, final char delimiter,
+      final char string) {
+    this.sink = sink;
+    this.delimiter = delimiter;
+    this.string = string;
+    fast = isPlain(delimiter) && isPlain(string) && delimiter != string;
+    canString = true;
+    capture = true;
+    cell = new char[64];
+  }
+
+  /**
+   * Whether a delimiter allows bulk scanning.
+   * 
+   * @param c The delimiter.
+   * @return Whether the delimiter is no line break.
+   */
+  private static boolean isPlain(final char c) {
+    return c != 0x0 && c != '\r' && c != '\n';
+  }
+
+  /**
+   * Processes the given characters.
+   * 
+   * @param buf The buffer.
+   * @param off The first character to process.
+   * @param end The end of the characters to process (exclusive).
+   * @return The end of the processed characters. This is the given end
+   *         unless processing was paused.
+   * @see #pause()
+   */
+  public int feed(final char[] buf, final int off, final int end) {
+    final char del = delimiter;
+    final char str = string;
+    int i = off;
+    while(i < end) {
+      if(fast && !endString) {
+        final int s = i;
+        if(isString) {
+          // delimiters are ordinary characters inside of strings
+          while(i < end) {
+            final char c = buf[i];
+            if(c == str || c <= '\r') {
+              break;
+            }
+            ++i;
+          }
+        } else {
+          while(i < end) {
+            final char c = buf[i];
+            if(c == del || c == str || c <= '\r') {
+              break;
+            }
+            ++i;
+          }
+        }
+        if(i > s) {
+          current = true;
+          afterLn = false;
+          canString = false;
+          if(i == end) {
+            append(buf, s, i - s);
+            return end;
+          }
+          if(!isString && len == 0) {
+            // the cell is completely in the buffer
+            final char c = buf[i];
+            if(c == del) {
+              deliver(buf, s, i - s);
+              current = false;
+              canString = true;
+              ++i;
+              continue;
+            }
+            if(c == line && line != 0x0) {
+              deliver(buf, s, i - s);
+              current = false;
+              capture = sink.line();
+              canString = true;
+              afterLn = true;
+              ++i;
+              if(pause) {
+                pause = false;
+                return i;
+              }
+              continue;
+            }
+          }
+          append(buf, s, i - s);
+        }
+      }
+      step(buf[i++]);
+      if(pause) {
+        pause = false;
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Stops processing after the current line. This can be called by the sink
+   * when it receives the end of a line. The call to feed that processed the
+   * line break then returns immediately after it.
+   */
+  public void pause() {
+    pause = true;
+  }
+
+  /**
+   * Passes a single character through the state machine.
+   * 
+   * @param c The character.
+   */
+  private void step(final char c) {
+    current = true;
+    if(c == ignore && ignore != 0x0) return;
+    afterLn = false;
+    if(line == 0x0 && (c == '\r' || c == '\n')) {
+      line = c;
+      ignore = (c == '\r') ? '\n' : '\r';
+    }
+    if(c == string) {
+      if(!endString) {
+        if(!isString) {
+          if(canString) {
+            isString = true;
+            return;
+          }
+        } else {
+          endString = true;
+          return;
+        }
+      }
+      endString = false;
+    } else if(endString) {
+      endString = false;
+      isString = false;
+    }
+    if(c == delimiter && !isString) {
+      emit();
+      canString = true;
+      return;
+    }
+    canString = false;
+    if(c == line) {
+      if(isString) {
+        append(NL, 0, NL.length);
+      } else {
+        emit();
+        capture = sink.line();
+        canString = true;
+      }
+      afterLn = true;
+      return;
+    }
+    if(capture) {
+      if(len == cell.length) {
+        grow(len + 1);
+      }
+      cell[len] = c;
+    }
+    ++len;
+  }
+
+  /**
+   * Signals the end of the input. The last cell is emitted if necessary.
+   */
+  public void finish() {
+    if(current && (len > 0 || !afterLn)) {
+      emit();
+    }
+  }
+
+  /**
+   * Passes the current cell to the sink.
+   */
+  private void emit() {
+    deliver(cell, 0, len);
+    len = 0;
+    current = false;
+  }
+
+  /**
+   * Passes a cell to the sink or tells the sink that a cell was skipped.
+   * 
+   * @param buf The buffer containing the cell.
+   * @param off The offset of the cell.
+   * @param l The length of the cell.
+   */
+  private void deliver(final char[] buf, final int off, final int l) {
+    capture = capture ? sink.cell(buf, off, l) : sink.skipped();
+  }
+
+  /**
+   * Appends characters to the current cell. When the content of the cell is
+   * not needed only its length is updated.
+   * 
+   * @param buf The buffer.
+   * @param off The offset.
+   * @param l The number of characters.
+   */
+  private void append(final char[] buf, final int off, final int l) {
+    if(capture) {
+      if(len + l > cell.length) {
+        grow(len + l);
+      }
+      System.arraycopy(buf, off, cell, len, l);
+    }
+    len += l;
+  }
+
+  /**
+   * Grows the cell buffer.
+   * 
+   * @param min The minimal required size.
+   */
+  private void grow(final int min) {
+    final char[] c = new char[Math.max(min, cell.length * 2)];
+    System.arraycopy(cell, 0, c, 0, len);
+    cell = c;
+  }
+
+}
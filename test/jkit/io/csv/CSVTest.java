@@ -5,12 +5,43 @@ package jkit.io.csv;
 
 import static jkit.io.csv.CSVTest.EventType.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
@@ -103,7 +134,7 @@ public class CSVTest {
 
   }
 
-  private final class TestHandler implements CSVHandler {
+  private class TestHandler implements CSVHandler {
 
     private final List<Event> events;
 
@@ -166,6 +197,47 @@ public class CSVTest {
 
   }
 
+  private final class CharTestHandler extends TestHandler implements
+      CSVCharHandler {
+
+    public CharTestHandler() {
+      // nothing to do
+    }
+
+    @Override
+    public void cellChars(final CSVContext ctx, final CharSequence content) {
+      final String str = content.toString();
+      if(content.hashCode() != str.hashCode()) throw new IllegalStateException(
+          "hash code of " + str);
+      super.cell(ctx, str);
+    }
+
+    @Override
+    public void cell(final CSVContext ctx, final String content) {
+      throw new IllegalStateException("cell called");
+    }
+
+  }
+
+  private final class NumberTestHandler extends TestHandler implements
+      CSVNumberHandler {
+
+    public NumberTestHandler() {
+      // nothing to do
+    }
+
+    @Override
+    public void cellLong(final CSVContext ctx, final long content) {
+      super.cell(ctx, "long " + content);
+    }
+
+    @Override
+    public void cellDouble(final CSVContext ctx, final double content) {
+      super.cell(ctx, "double " + content);
+    }
+
+  }
+
   private static final String NL = System.getProperty("line.separator");
 
   private static final String STR_TEST0 = "hallo;\"abc\"; buh ;\r\nbello;;"
@@ -273,6 +345,83 @@ public class CSVTest {
     th.test(valid);
   }
 
+  private void doByteTest(final CSVReader reader, final String in,
+      final Event[] valid) throws Exception {
+    final String[] charsets = new String[] { "UTF-8", "ISO-8859-1", "UTF-16"};
+    for(final String name : charsets) {
+      final Charset cs = Charset.forName(name);
+      final byte[] bytes = in.getBytes(cs);
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      reader.read(new ByteArrayInputStream(bytes), cs);
+      th.test(valid);
+      final TestHandler bh = new TestHandler();
+      reader.setHandler(bh);
+      final ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+      buf.put(bytes);
+      buf.flip();
+      reader.read(buf, cs);
+      bh.test(valid);
+    }
+  }
+
+  private void doFileTest(final CSVReader reader, final String in,
+      final Event[] valid) throws Exception {
+    final File file = File.createTempFile("csv", ".csv");
+    try {
+      for(final String name : new String[] { "UTF-8", "UTF-16"}) {
+        final Charset cs = Charset.forName(name);
+        Files.write(file.toPath(), in.getBytes(cs));
+        final TestHandler th = new TestHandler();
+        reader.setHandler(th);
+        reader.read(file.toPath(), cs);
+        th.test(valid);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static final class BlockReader extends Reader {
+
+    private final String in;
+
+    private final int block;
+
+    private int pos;
+
+    public BlockReader(final String in, final int block) {
+      this.in = in;
+      this.block = block;
+      pos = 0;
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) {
+      if(pos >= in.length()) return -1;
+      final int n = Math.min(Math.min(len, block), in.length() - pos);
+      in.getChars(pos, pos + n, cbuf, off);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void close() {
+      // nothing to do
+    }
+
+  }
+
+  private void doBlockTest(final CSVReader reader, final String in,
+      final Event[] valid) throws Exception {
+    for(int block = 1; block <= 4; ++block) {
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      reader.read(new BlockReader(in, block));
+      th.test(valid);
+    }
+  }
+
   /**
    * Tests types of cells.
    * 
@@ -362,4 +511,2197 @@ public class CSVTest {
         "expected \"" + test + "\" got \""
             + out.toString() + "\"");
   }
+
+  /**
+   * Tests input that arrives in small blocks.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test5() throws Exception {
+    doBlockTest(new CSVReader(), STR_TEST0, EV_TEST0);
+    doBlockTest(new CSVReader(), STR_TEST1RN, EV_TEST1);
+    doBlockTest(new CSVReader(), STR_TEST2, EV_TEST2);
+    doBlockTest(new CSVReader(';', '"', true, true), STR_TEST3, EV_TEST3RC);
+  }
+
+  private static final String STR_TEST7 = "\u00e4\u00f6;\"\u00fc;\u00df\"\n"
+      + "\u00b5;x\u00e9y";
+
+  private static final Event[] EV_TEST7 = new Event[] {
+      new Event(START, 0, 0), new Event(ROW, 0, 0),
+      new Event(CELL, 0, 0, "\u00e4\u00f6"),
+      new Event(CELL, 0, 1, "\u00fc;\u00df"), new Event(ROW, 1, 0),
+      new Event(CELL, 1, 0, "\u00b5"), new Event(CELL, 1, 1, "x\u00e9y"),
+      new Event(END, -2, -2)};
+
+  /**
+   * Tests reading bytes.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test6() throws Exception {
+    doByteTest(new CSVReader(), STR_TEST0, EV_TEST0);
+    doByteTest(new CSVReader(), STR_TEST1R, EV_TEST1);
+    doByteTest(new CSVReader(), STR_TEST2, EV_TEST2);
+    doByteTest(new CSVReader(';', '"', true, true), STR_TEST3, EV_TEST3RC);
+  }
+
+  /**
+   * Tests reading non ASCII bytes.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test7() throws Exception {
+    doTest(new CSVReader(), STR_TEST7, EV_TEST7);
+    doByteTest(new CSVReader(), STR_TEST7, EV_TEST7);
+  }
+
+  /**
+   * Tests reading files.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test8() throws Exception {
+    doFileTest(new CSVReader(), STR_TEST0, EV_TEST0);
+    doFileTest(new CSVReader(';', '"', true, true), STR_TEST3, EV_TEST3RC);
+    doFileTest(new CSVReader(), STR_TEST7, EV_TEST7);
+    doFileTest(new CSVReader(), "", new Event[] {
+        new Event(START, 0, 0), new Event(END, -2, -2)});
+    // malformed input is replaced as when reading a stream
+    final Charset utf16 = Charset.forName("UTF-16");
+    final byte[] valid = STR_TEST0.getBytes(utf16);
+    final byte[] bytes = Arrays.copyOf(valid, valid.length + 1);
+    bytes[valid.length] = 0x41;
+    final Path file = Files.createTempFile("csv", ".csv");
+    try {
+      Files.write(file, bytes);
+      final CSVReader reader = new CSVReader();
+      final TestHandler sh = new TestHandler();
+      reader.setHandler(sh);
+      reader.read(new ByteArrayInputStream(bytes), utf16);
+      final TestHandler fh = new TestHandler();
+      reader.setHandler(fh);
+      reader.read(file, utf16);
+      if(!sh.events.equals(fh.events)) throw new IllegalStateException(
+          "expected " + sh.events + " got " + fh.events);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static File createLargeFile() throws IOException {
+    final StringBuilder sb = new StringBuilder("id;text;num\r\n");
+    for(int i = 0; i < 300000; ++i) {
+      sb.append(i).append(";\"multi\r\nline;").append(i % 7 == 0 ? "\"\"" : "")
+          .append(i).append("\";").append(i * 31).append("\r\n");
+    }
+    final File file = File.createTempFile("csv", ".csv");
+    Files.write(file.toPath(), sb.toString().getBytes("UTF-8"));
+    return file;
+  }
+
+  /**
+   * Tests reading a file in parallel.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test9() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    final File file = createLargeFile();
+    try {
+      final TestHandler seq = new TestHandler();
+      reader.setHandler(seq);
+      reader.read(file.toPath(), Charset.forName("UTF-8"));
+      final Event[] valid = seq.events.toArray(new Event[seq.events.size()]);
+      final ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+        final TestHandler ordered = new TestHandler();
+        reader.setHandler(ordered);
+        final FileChannel ch = FileChannel.open(file.toPath());
+        try {
+          reader.readParallel(ch, Charset.forName("UTF-8"), pool, true);
+        } finally {
+          ch.close();
+        }
+        ordered.test(valid);
+        final TestHandler unordered = new TestHandler();
+        reader.setHandler(unordered);
+        reader.readParallel(file.toPath(), Charset.forName("UTF-8"), false);
+        final Comparator<Event> cmp = new Comparator<Event>() {
+
+          @Override
+          public int compare(final Event a, final Event b) {
+            return a.toString().compareTo(b.toString());
+          }
+
+        };
+        final List<Event> expect = new ArrayList<Event>(seq.events);
+        Collections.sort(expect, cmp);
+        Collections.sort(unordered.events, cmp);
+        if(!expect.equals(unordered.events)) throw new IllegalStateException(
+            "unordered events differ");
+      } finally {
+        pool.shutdown();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private void doCharTest(final CSVReader reader, final String in,
+      final Event[] valid) throws Exception {
+    final CharTestHandler th = new CharTestHandler();
+    reader.setHandler(th);
+    reader.read(new StringReader(in));
+    th.test(valid);
+    final CharTestHandler bh = new CharTestHandler();
+    reader.setHandler(bh);
+    reader.read(new ByteArrayInputStream(in.getBytes("UTF-8")),
+        Charset.forName("UTF-8"));
+    bh.test(valid);
+  }
+
+  /**
+   * Tests char sequence cells.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test10() throws Exception {
+    doCharTest(new CSVReader(), STR_TEST0, EV_TEST0);
+    doCharTest(new CSVReader(), STR_TEST1RN, EV_TEST1);
+    doCharTest(new CSVReader(';', '"', true, true), STR_TEST3, EV_TEST3RC);
+    doCharTest(new CSVReader(), STR_TEST7, EV_TEST7);
+  }
+
+  private static final String STR_TEST12 = "id;count;value\n"
+      + "a;12;-4.5e2\n\"b\";-9223372036854775808;\"0.1\"\n"
+      + "c;;NaN\nd;1.5;x\n";
+
+  private static final Event[] EV_TEST12 = new Event[] {
+      new Event(START, -1, 0), new Event(COL, -1, 0, "id"),
+      new Event(COL, -1, 1, "count"), new Event(COL, -1, 2, "value"),
+      new Event(ROW, 0, 0), new Event(CELL, 0, 0, "a"),
+      new Event(CELL, 0, 1, "long 12"), new Event(CELL, 0, 2, "double -450.0"),
+      new Event(ROW, 1, 0), new Event(CELL, 1, 0, "b"),
+      new Event(CELL, 1, 1, "long " + Long.MIN_VALUE),
+      new Event(CELL, 1, 2, "double 0.1"), new Event(ROW, 2, 0),
+      new Event(CELL, 2, 0, "c"), new Event(CELL, 2, 1, ""),
+      new Event(CELL, 2, 2, "double NaN"), new Event(ROW, 3, 0),
+      new Event(CELL, 3, 0, "d"), new Event(CELL, 3, 1, "1.5"),
+      new Event(CELL, 3, 2, "x"), new Event(END, -2, -2)};
+
+  /**
+   * Tests numeric columns.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test11() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    reader.setLongColumns(1, 2);
+    reader.setDoubleColumns(2);
+    final int[] longs = reader.longColumns();
+    if(!Arrays.equals(longs, new int[] { 1})) throw new IllegalStateException(
+        "long columns " + Arrays.toString(longs));
+    final NumberTestHandler th = new NumberTestHandler();
+    reader.setHandler(th);
+    reader.read(new StringReader(STR_TEST12));
+    th.test(EV_TEST12);
+    // without a number handler every cell is text
+    final TestHandler text = new TestHandler();
+    reader.setHandler(text);
+    reader.read(new StringReader(STR_TEST12));
+    final Event e = text.events.get(6);
+    if(!"12".equals(e.content)) throw new IllegalStateException(
+        "expected text cell got " + e);
+  }
+
+  private static final Event[] EV_TEST13 = new Event[] {
+      new Event(START, -1, -1), new Event(COL, -1, 0, "c1"),
+      new Event(COL, -1, 2, "c3"), new Event(ROW, 0, -1, "r1"),
+      new Event(ROW, 0, 0, null, "r1", null),
+      new Event(CELL, 0, 0, "1", "r1", "c1"),
+      new Event(CELL, 0, 2, "3", "r1", "c3"), new Event(ROW, 1, -1, "r2"),
+      new Event(ROW, 1, 0, null, "r2", null),
+      new Event(CELL, 1, 0, "4", "r2", "c1"),
+      new Event(CELL, 1, 2, "6", "r2", "c3"), new Event(ROW, 2, -1, "r3"),
+      new Event(ROW, 2, 0, null, "r3", null),
+      new Event(CELL, 2, 0, "7", "r3", "c1"),
+      new Event(CELL, 2, 2, "9", "r3", "c3"), new Event(END, -2, -2)};
+
+  private static final Event[] EV_TEST13S = new Event[] {
+      new Event(START, 0, 0), new Event(ROW, 0, 0),
+      new Event(CELL, 0, 1, "def"), new Event(ROW, 1, 0),
+      new Event(CELL, 1, 1, "mno"), new Event(ROW, 2, 0),
+      new Event(CELL, 2, 1, "vwx"), new Event(END, -2, -2)};
+
+  /**
+   * Tests selecting columns.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test12() throws Exception {
+    final CSVReader index = new CSVReader(';', '"', true, true);
+    index.selectColumns(0, 2, 7);
+    doTest(index, STR_TEST3, EV_TEST13);
+    doBlockTest(index, STR_TEST3, EV_TEST13);
+    doByteTest(index, STR_TEST3, EV_TEST13);
+    final CSVReader names = new CSVReader(';', '"', true, true);
+    names.selectColumns("c3", "c1", "c7");
+    doTest(names, STR_TEST3, EV_TEST13);
+    doByteTest(names, STR_TEST3, EV_TEST13);
+    final CSVReader single = new CSVReader();
+    single.selectColumns(1);
+    doTest(single, STR_TEST1RN, EV_TEST13S);
+    doBlockTest(single, STR_TEST1R, EV_TEST13S);
+    doByteTest(single, STR_TEST1N, EV_TEST13S);
+    single.selectAllColumns();
+    doTest(single, STR_TEST1RN, EV_TEST1);
+    single.selectColumns("def");
+    try {
+      doTest(single, STR_TEST1RN, EV_TEST13S);
+      throw new IllegalStateException("expected exception");
+    } catch(final IllegalStateException e) {
+      if(!e.getMessage().startsWith("columns")) throw e;
+    }
+  }
+
+  private void doCursorTest(final CSVCursor cur) throws Exception {
+    try {
+      final String[][] rows = new String[][] { { "1", "2", "3"},
+          { "4", "5", "6"}, { "7", "8", "9"}};
+      int r = 0;
+      while(cur.next()) {
+        if(cur.row() != r) throw new IllegalStateException(
+            "expected row " + r + " got " + cur.row());
+        if(!("r" + (r + 1)).equals(cur.rowName())) {
+          throw new IllegalStateException("row name " + cur.rowName());
+        }
+        if(cur.size() != 3) throw new IllegalStateException("size "
+            + cur.size());
+        for(int c = 0; c < 3; ++c) {
+          if(!rows[r][c].equals(cur.get(c).toString())) {
+            throw new IllegalStateException("cell " + r + "," + c);
+          }
+          if(cur.getLong(c) != 3 * r + c + 1) throw new IllegalStateException(
+              "long " + r + "," + c);
+        }
+        if(!("c" + (r + 1)).equals(cur.colName(r))) {
+          throw new IllegalStateException("col name " + cur.colName(r));
+        }
+        ++r;
+      }
+      if(r != 3) throw new IllegalStateException("rows " + r);
+    } finally {
+      cur.close();
+    }
+  }
+
+  /**
+   * Tests reading rows with a cursor.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test13() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, true);
+    doCursorTest(reader.cursor(new BlockReader(STR_TEST3, 3)));
+    for(final String name : new String[] { "UTF-8", "UTF-16"}) {
+      final Charset cs = Charset.forName(name);
+      doCursorTest(reader.cursor(
+          new ByteArrayInputStream(STR_TEST3.getBytes(cs)), cs));
+    }
+    final CSVCursor cur = new CSVReader().cursor(new StringReader(STR_TEST0));
+    try {
+      if(!cur.next() || !"hallo".equals(cur.getString(0))
+          || cur.get(3).length() != 0 || cur.get(4) != null) {
+        throw new IllegalStateException("first row");
+      }
+      if(!cur.next() || !("wu" + NL + "ff").equals(cur.getString(3))) {
+        throw new IllegalStateException("second row");
+      }
+      try {
+        cur.getDouble(0);
+        throw new IllegalStateException("expected exception");
+      } catch(final NumberFormatException e) {
+        // expected
+      }
+      if(!cur.next() || !cur.next() || cur.size() != 2
+          || !"blubbblubb".equals(cur.getString(0))) {
+        throw new IllegalStateException("last row");
+      }
+      if(cur.next()) throw new IllegalStateException("too many rows");
+    } finally {
+      cur.close();
+    }
+  }
+
+  private static void checkRows(final List<CSVRow> rows, final boolean all) {
+    if(rows.size() != 300000) throw new IllegalStateException("rows "
+        + rows.size());
+    for(int i = 0; i < rows.size(); ++i) {
+      final CSVRow row = rows.get(i);
+      if(row.row() != i || row.size() != 3) throw new IllegalStateException(
+          "row " + row);
+      final String text = "multi" + NL + "line;" + (i % 7 == 0 ? "\"" : "")
+          + i;
+      if(!(all ? text.equals(row.get(1)) : row.get(1) == null)
+          || !(all ? ("" + i).equals(row.get(0)) : row.get(0) == null)
+          || !("" + i * 31).equals(row.get(2))) {
+        throw new IllegalStateException("row " + row);
+      }
+    }
+  }
+
+  /**
+   * Tests streaming rows.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test14() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    final File file = createLargeFile();
+    try {
+      Stream<CSVRow> rows = reader.rows(file.toPath());
+      try {
+        checkRows(rows.collect(Collectors.<CSVRow> toList()), true);
+      } finally {
+        rows.close();
+      }
+      rows = reader.rows(file.toPath()).parallel();
+      try {
+        checkRows(rows.collect(Collectors.<CSVRow> toList()), true);
+      } finally {
+        rows.close();
+      }
+      reader.selectColumns("num");
+      rows = reader.rows(file.toPath()).parallel();
+      try {
+        checkRows(rows.collect(Collectors.<CSVRow> toList()), false);
+      } finally {
+        rows.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Tests loading a table.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test15() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    reader.setLongColumns(1);
+    reader.setDoubleColumns(2);
+    final CSVTableHandler th = new CSVTableHandler();
+    reader.setHandler(th);
+    reader.read(new StringReader(STR_TEST12));
+    final CSVTable t = th.table();
+    if(t.rows() != 4 || t.cols() != 3 || !"value".equals(t.colName(2))
+        || t.type(0) != CSVTable.Type.STRING
+        || t.type(1) != CSVTable.Type.LONG
+        || t.type(2) != CSVTable.Type.DOUBLE) {
+      throw new IllegalStateException("table layout");
+    }
+    if(!"b".equals(t.getString(1, 0)) || t.dictionarySize(0) != 4
+        || t.getLong(1, 1) != Long.MIN_VALUE || !t.isMissing(2, 1)
+        || !t.isMissing(3, 1) || t.getDouble(0, 2) != -450.0
+        || !Double.isNaN(t.getDouble(2, 2)) || t.isMissing(2, 2)
+        || !t.isMissing(3, 2) || t.getString(3, 2) != null) {
+      throw new IllegalStateException("table content");
+    }
+    final CSVReader small = new CSVReader();
+    small.setLongColumns(1);
+    small.setHandler(th);
+    small.read(new StringReader("a;1\na;-2\nb\na;;x\n"));
+    final CSVTable s = th.table();
+    if(s.rows() != 4 || s.cols() != 3 || s.colName(0) != null
+        || s.type(1) != CSVTable.Type.INT
+        || !Arrays.equals(s.ints(1), new int[] { 1, -2, 0, 0})
+        || !s.isMissing(2, 1) || !s.isMissing(3, 1)
+        || !Arrays.equals(s.codes(0), new int[] { 0, 0, 1, 0})
+        || s.dictionarySize(0) != 2 || !"b".equals(s.dictionary(0, 1))
+        || s.getCode(0, 2) != -1 || !"x".equals(s.getString(3, 2))) {
+      throw new IllegalStateException("small table");
+    }
+  }
+
+  /**
+   * Tests column lookups in a file with many columns.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test16() throws Exception {
+    final int cols = 200000;
+    final StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < cols; ++i) {
+      sb.append(i > 0 ? ";" : "").append(i == cols - 1 ? "c0" : "c" + i);
+    }
+    sb.append(NL);
+    for(int r = 0; r < 3; ++r) {
+      for(int i = 0; i < cols; ++i) {
+        sb.append(i > 0 ? ";" : "").append(r);
+      }
+      sb.append(NL);
+    }
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    final int[] count = new int[1];
+    reader.setHandler(new CSVAdapter() {
+
+      @Override
+      public void cell(final CSVContext ctx, final String content) {
+        if(!ctx.colName().equals(ctx.col() == cols - 1 ? "c0"
+            : "c" + ctx.col())) throw new IllegalStateException(
+            "wrong title " + ctx);
+        ++count[0];
+      }
+
+      @Override
+      public void end(final CSVContext ctx) {
+        if(ctx.colIndex("c0") != 0 || ctx.colIndex("c12345") != 12345
+            || ctx.colIndex("c" + (cols - 2)) != cols - 2
+            || ctx.colIndex("c" + cols) != -1) {
+          throw new IllegalStateException("wrong lookup");
+        }
+      }
+
+    });
+    reader.read(new StringReader(sb.toString()));
+    if(count[0] != 3 * cols) throw new IllegalStateException(
+        "expected " + 3 * cols + " cells got " + count[0]);
+    final CSVReader plain = new CSVReader();
+    plain.setHandler(new CSVAdapter() {
+
+      @Override
+      public void end(final CSVContext ctx) {
+        if(ctx.colIndex("0") != -1) throw new IllegalStateException(
+            "lookup without titles");
+      }
+
+    });
+    plain.read(new StringReader("0;1" + NL));
+  }
+
+  /**
+   * Tests that names of rows and columns without titles are reused.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test17() throws Exception {
+    final CSVReader reader = new CSVReader();
+    final String[] first = new String[3];
+    final StringBuilder out = new StringBuilder();
+    reader.setHandler(new CSVAdapter() {
+
+      @Override
+      public void cell(final CSVContext ctx, final String content) {
+        final String name = ctx.colName();
+        if(ctx.row() == 0) {
+          first[ctx.col()] = name;
+        } else if(first[ctx.col()] != name) throw new IllegalStateException(
+            "column name not reused " + ctx);
+        if(ctx.rowName() != ctx.rowName()) throw new IllegalStateException(
+            "row name not reused " + ctx);
+        out.append(ctx.rowChars()).append(':').append(ctx.colChars())
+            .append(' ');
+      }
+
+    });
+    reader.read(new StringReader("a;b;c" + NL + "d;e;f" + NL + "g" + NL));
+    if(!"0:0 0:1 0:2 1:0 1:1 1:2 2:0 ".equals(out.toString())) {
+      throw new IllegalStateException("got " + out);
+    }
+    final CSVChars chars = new CSVChars();
+    final char[] buf = new char[CSVChars.INT_CHARS];
+    for(final int v : new int[] { 0, 7, -1, 1234567, Integer.MAX_VALUE,
+        Integer.MIN_VALUE}) {
+      if(!Integer.toString(v).equals(chars.setInt(buf, v).toString())) {
+        throw new IllegalStateException("wrong digits for " + v);
+      }
+    }
+  }
+
+  /**
+   * Tests the string cache.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test18() throws Exception {
+    final StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 10000; ++i) {
+      sb.append(i % 3 == 0 ? "DE" : "US").append(';').append(i).append(NL);
+    }
+    final CSVReader reader = new CSVReader();
+    reader.setStringCache(16);
+    final Map<String, String> seen = new HashMap<String, String>();
+    final int[] same = new int[2];
+    reader.setHandler(new CSVAdapter() {
+
+      @Override
+      public void cell(final CSVContext ctx, final String content) {
+        final String s = seen.get(content);
+        if(s == content) {
+          ++same[ctx.col()];
+        } else if(s == null) {
+          seen.put(content, content);
+        }
+      }
+
+    });
+    reader.read(new StringReader(sb.toString()));
+    if(same[0] != 10000 - 2 || same[1] != 0) throw new IllegalStateException(
+        "expected " + (10000 - 2) + " reused strings got "
+            + Arrays.toString(same));
+    final CSVCursor cur = reader.cursor(new StringReader(sb.toString()));
+    try {
+      if(!cur.next() || !cur.next()) throw new IllegalStateException(
+          "missing rows");
+      final String us = cur.getString(0);
+      if(!cur.next() || us != cur.getString(0)
+          || !"2".equals(cur.getString(1))) {
+        throw new IllegalStateException("cursor cache");
+      }
+    } finally {
+      cur.close();
+    }
+    reader.setStringCache(0);
+    seen.clear();
+    same[0] = 0;
+    reader.read(new StringReader(sb.toString()));
+    if(same[0] != 0) throw new IllegalStateException("cache not disabled");
+  }
+
+  /**
+   * Tests finding special bytes in words.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test19() throws Exception {
+    final Random rnd = new Random(19);
+    final byte[] pool = { 'a', ';', '"', '\r', '\n', '\t', 0x0, 0x7F,
+        (byte) 0x80, (byte) 0xBB, (byte) 0xFF, ' ', '\u000E'};
+    final long del = CSVBytes.pattern((byte) ';');
+    final long str = CSVBytes.pattern((byte) '"');
+    for(int n = 0; n < 2000; ++n) {
+      final byte[] arr = new byte[rnd.nextInt(40)];
+      for(int i = 0; i < arr.length; ++i) {
+        arr[i] = rnd.nextInt(3) == 0 ? pool[rnd.nextInt(pool.length)]
+            : (byte) 'x';
+      }
+      for(final ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+          ByteOrder.LITTLE_ENDIAN}) {
+        final ByteBuffer buf = ByteBuffer.wrap(arr).order(order);
+        final int from = arr.length > 0 ? rnd.nextInt(arr.length) : 0;
+        int exp = from;
+        while(exp < arr.length && arr[exp] != ';' && arr[exp] != '"'
+            && (arr[exp] < 0 || arr[exp] > '\r')) {
+          ++exp;
+        }
+        final int got = CSVBytes.find(buf, from, arr.length, del, str);
+        if(got != exp) throw new IllegalStateException("expected " + exp
+            + " got " + got + " in " + Arrays.toString(arr) + " " + order);
+      }
+    }
+  }
+
+  private void doPipelineTest(final CSVReader reader, final String in,
+      final Event[] valid, final ExecutorService pool) throws Exception {
+    for(int block = 1; block <= 4; ++block) {
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      reader.readPipelined(new BlockReader(in, block), pool);
+      th.test(valid);
+    }
+    for(final String name : new String[] { "UTF-8", "UTF-16"}) {
+      final Charset cs = Charset.forName(name);
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      reader.readPipelined(new ByteArrayInputStream(in.getBytes(cs)), cs,
+          pool);
+      th.test(valid);
+    }
+  }
+
+  /**
+   * Tests reading in a pipeline.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test20() throws Exception {
+    final ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      doPipelineTest(new CSVReader(), STR_TEST0, EV_TEST0, pool);
+      doPipelineTest(new CSVReader(), STR_TEST1RN, EV_TEST1, pool);
+      doPipelineTest(new CSVReader(), STR_TEST7, EV_TEST7, pool);
+      doPipelineTest(new CSVReader(';', '"', true, true), STR_TEST3,
+          EV_TEST3RC, pool);
+      final CSVReader reader = new CSVReader(';', '"', true, false);
+      final File file = createLargeFile();
+      try {
+        final TestHandler seq = new TestHandler();
+        reader.setHandler(seq);
+        reader.read(file.toPath(), Charset.forName("UTF-8"));
+        final Event[] valid = seq.events.toArray(
+            new Event[seq.events.size()]);
+        final TestHandler th = new TestHandler();
+        reader.setHandler(th);
+        final InputStream in = Files.newInputStream(file.toPath());
+        try {
+          reader.readPipelined(in, Charset.forName("UTF-8"), pool);
+        } finally {
+          in.close();
+        }
+        th.test(valid);
+      } finally {
+        file.delete();
+      }
+      // failures of the input and the handler
+      final Reader broken = new Reader() {
+
+        private int calls;
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len)
+            throws IOException {
+          if(++calls > 3) throw new IOException("broken");
+          Arrays.fill(cbuf, off, off + len, 'a');
+          return len;
+        }
+
+        @Override
+        public void close() {
+          // nothing to do
+        }
+
+      };
+      reader.setHandler(new CSVAdapter());
+      try {
+        reader.readPipelined(broken, pool);
+        throw new IllegalStateException("expected exception");
+      } catch(final IOException e) {
+        if(!"broken".equals(e.getMessage())) throw e;
+      }
+      reader.setHandler(new CSVAdapter() {
+
+        @Override
+        public void cell(final CSVContext ctx, final String content) {
+          if(ctx.row() == 1000) throw new IllegalArgumentException("stop");
+        }
+
+      });
+      final StringBuilder sb = new StringBuilder();
+      for(int i = 0; i < 100000; ++i) {
+        sb.append(i).append(";x").append(NL);
+      }
+      try {
+        reader.readPipelined(new StringReader(sb.toString()), pool);
+        throw new IllegalStateException("expected exception");
+      } catch(final IllegalArgumentException e) {
+        if(!"stop".equals(e.getMessage())) throw e;
+      }
+    } finally {
+      pool.shutdown();
+    }
+    if(!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("pipeline stages did not stop");
+    }
+  }
+
+  /**
+   * Tests reading multiple files concurrently.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test21() throws Exception {
+    final Path dir = Files.createTempDirectory("csv");
+    final List<Path> files = new ArrayList<Path>();
+    try {
+      for(int i = 0; i < 50; ++i) {
+        final StringBuilder sb = new StringBuilder("name;value" + NL);
+        for(int r = 0; r <= i; ++r) {
+          sb.append("f").append(i).append(';').append(r).append(NL);
+        }
+        final Path p = dir.resolve(String.format("part%03d.csv", i));
+        Files.write(p, sb.toString().getBytes("UTF-8"));
+        files.add(p);
+      }
+      Files.write(dir.resolve("notes.txt"), "x".getBytes("UTF-8"));
+      final CSVReader reader = new CSVReader(';', '"', true, false);
+      reader.setLongColumns(1);
+      final List<Path> merged = new ArrayList<Path>();
+      final long[] sum = new long[1];
+      final CSVHandlerFactory<CSVTableHandler> factory =
+          new CSVHandlerFactory<CSVTableHandler>() {
+
+            @Override
+            public CSVTableHandler create(final Path file) {
+              return new CSVTableHandler();
+            }
+
+            @Override
+            public void merge(final Path file, final CSVTableHandler hnd) {
+              final CSVTable t = hnd.table();
+              final int i = merged.size();
+              if(t.rows() != i + 1 || !("f" + i).equals(t.getString(0, 0))) {
+                throw new IllegalStateException("wrong table for " + file);
+              }
+              for(int r = 0; r < t.rows(); ++r) {
+                sum[0] += t.getLong(r, 1);
+              }
+              merged.add(file);
+            }
+
+          };
+      reader.readDirectory(dir, "*.csv", Charset.forName("UTF-8"), factory);
+      if(!merged.equals(files)) throw new IllegalStateException(
+          "wrong order " + merged);
+      long exp = 0;
+      for(int i = 0; i < 50; ++i) {
+        exp += i * (i + 1) / 2;
+      }
+      if(sum[0] != exp) throw new IllegalStateException(
+          "expected " + exp + " got " + sum[0]);
+      final ExecutorService pool = Executors.newFixedThreadPool(2);
+      try {
+        merged.clear();
+        final List<Path> broken = new ArrayList<Path>(files);
+        broken.add(3, dir.resolve("missing.csv"));
+        reader.readFiles(broken, Charset.forName("UTF-8"), factory, pool);
+        throw new IllegalStateException("expected exception");
+      } catch(final IOException e) {
+        if(merged.size() != 3 || !e.getMessage().contains("missing.csv")) {
+          throw e;
+        }
+      } finally {
+        pool.shutdown();
+      }
+    } finally {
+      for(final File f : dir.toFile().listFiles()) {
+        f.delete();
+      }
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * Tests sharing a parser between threads.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test22() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, true);
+    final CSVParser parser = reader.parser();
+    reader.setReadColTitles(false);
+    final TestHandler first = new TestHandler();
+    parser.parse(new StringReader(STR_TEST3), first);
+    first.test(EV_TEST3RC);
+    if(!parser.reader().readColTitles() || parser.reader() == reader) {
+      throw new IllegalStateException("parser changed with reader");
+    }
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> tasks = new ArrayList<Future<?>>();
+      for(int t = 0; t < 4; ++t) {
+        tasks.add(pool.submit(new Callable<Void>() {
+
+          @Override
+          public Void call() throws Exception {
+            for(int i = 0; i < 500; ++i) {
+              final TestHandler th = new TestHandler();
+              if(i % 2 == 0) {
+                parser.parse(new BlockReader(STR_TEST3, 1 + i % 4), th);
+              } else {
+                parser.parse(new ByteArrayInputStream(
+                    STR_TEST3.getBytes("UTF-8")), Charset.forName("UTF-8"),
+                    th);
+              }
+              th.test(EV_TEST3RC);
+            }
+            return null;
+          }
+
+        }));
+      }
+      for(final Future<?> f : tasks) {
+        f.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+    // parsing within a handler of the same parser
+    final TestHandler inner = new TestHandler();
+    final TestHandler outer = new TestHandler() {
+
+      @Override
+      public void row(final CSVContext ctx) {
+        super.row(ctx);
+        if(ctx.row() == 1) {
+          try {
+            parser.parse(new StringReader(STR_TEST3), inner);
+          } catch(final IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      }
+
+    };
+    parser.parse(new BlockReader(STR_TEST3, 4), outer);
+    outer.test(EV_TEST3RC);
+    inner.test(EV_TEST3RC);
+    // changing the reader of a context does not affect the parser
+    parser.parse(STR_TEST3, new CSVAdapter() {
+
+      @Override
+      public void start(final CSVContext ctx) {
+        ctx.reader().selectColumns(0);
+      }
+
+    });
+    final TestHandler after = new TestHandler();
+    parser.parse(STR_TEST3, after);
+    after.test(EV_TEST3RC);
+  }
+
+
+  private void doSequenceTest(final CSVReader reader, final String in,
+      final Event[] valid) throws Exception {
+    final CharSequence[] seqs = new CharSequence[] {
+        in, new StringBuilder(in), new StringBuffer(in),
+        CharBuffer.wrap(("xx" + in + "x").toCharArray(), 2, in.length()),
+        CharBuffer.wrap(in), new Segment(in)};
+    for(final CharSequence seq : seqs) {
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      reader.read(seq);
+      th.test(valid);
+    }
+    final TestHandler th = new TestHandler();
+    reader.parser().parse(in, th);
+    th.test(valid);
+  }
+
+  private static final class Segment implements CharSequence {
+
+    private final String str;
+
+    public Segment(final String str) {
+      this.str = str;
+    }
+
+    @Override
+    public int length() {
+      return str.length();
+    }
+
+    @Override
+    public char charAt(final int index) {
+      return str.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return new Segment(str.substring(start, end));
+    }
+
+    @Override
+    public String toString() {
+      return str;
+    }
+
+  }
+
+  /**
+   * Tests reading strings and other char sequences.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test23() throws Exception {
+    doSequenceTest(new CSVReader(), STR_TEST0, EV_TEST0);
+    doSequenceTest(new CSVReader(), STR_TEST1RN, EV_TEST1);
+    doSequenceTest(new CSVReader(), STR_TEST2, EV_TEST2);
+    doSequenceTest(new CSVReader(';', '"', true, true), STR_TEST3,
+        EV_TEST3RC);
+    doSequenceTest(new CSVReader(), STR_TEST7, EV_TEST7);
+    doSequenceTest(new CSVReader(), "", new Event[0]);
+    // larger than the buffer
+    final StringBuilder sb = new StringBuilder("a;b;c\n");
+    for(int i = 0; sb.length() <= 3 * CSVReader.BUFFER_SIZE; ++i) {
+      sb.append(i).append(";\"x;\n").append(i).append("\";\"\"\n");
+    }
+    final String large = sb.toString();
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    final TestHandler valid = new TestHandler();
+    reader.setHandler(valid);
+    reader.read(new StringReader(large));
+    for(final CharSequence seq : new CharSequence[] {
+        large, new StringBuilder(large), CharBuffer.wrap(large),
+        new Segment(large)}) {
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      reader.read(seq);
+      if(!valid.events.equals(th.events)) throw new IllegalStateException(
+          "different events for " + seq.getClass().getSimpleName());
+    }
+  }
+
+
+  private static void append(final Path file, final String str)
+      throws IOException {
+    Files.write(file, str.getBytes("UTF-8"), StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Tests following a growing file.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test24() throws Exception {
+    final Charset utf8 = Charset.forName("UTF-8");
+    final Path file = Files.createTempFile("csv", ".csv");
+    try {
+      for(final String nl : new String[] { "\n", "\r\n", "\r"}) {
+        Files.write(file, new byte[0]);
+        final CSVReader reader = new CSVReader(';', '"', true, true);
+        final TestHandler th = new TestHandler();
+        reader.setHandler(th);
+        final CSVFollower f = reader.follow(file, utf8);
+        if(f.poll() != 0) throw new IllegalStateException("empty file");
+        append(file, ";a;b" + nl + "r0;\"x" + nl);
+        if(f.poll() != 0) throw new IllegalStateException("partial row");
+        append(file, "y\";1" + nl + "r1;2");
+        if(f.poll() != 1) throw new IllegalStateException("one row");
+        final CSVCheckpoint cp = f.checkpoint();
+        if(cp.row() != 1 || !Arrays.equals(cp.colNames(),
+            new String[] { "a", "b"})) throw new IllegalStateException(
+            "wrong checkpoint " + cp);
+        append(file, "3" + nl);
+        if(f.poll() != 1) throw new IllegalStateException("second row");
+        f.close();
+        th.test(new Event[] {
+            new Event(START, -1, -1), new Event(COL, -1, 0, "a"),
+            new Event(COL, -1, 1, "b"), new Event(ROW, 0, -1, "r0"),
+            new Event(ROW, 0, 0), new Event(CELL, 0, 0, "x" + NL + "y"),
+            new Event(CELL, 0, 1, "1"), new Event(ROW, 1, -1, "r1"),
+            new Event(ROW, 1, 0), new Event(CELL, 1, 0, "23"),
+            new Event(END, -2, -2),
+        });
+        // continue from the stored checkpoint
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cp.write(new DataOutputStream(out));
+        final CSVCheckpoint stored = CSVCheckpoint.read(new DataInputStream(
+            new ByteArrayInputStream(out.toByteArray())));
+        if(!stored.equals(cp)) throw new IllegalStateException(
+            "different checkpoint " + stored);
+        append(file, "r2;4;5" + nl);
+        final TestHandler resumed = new TestHandler();
+        reader.setHandler(resumed);
+        final CSVFollower g = reader.follow(file, utf8, stored);
+        if(g.poll() != 2) throw new IllegalStateException("resumed rows");
+        // the offset is right after the line break that ends a row
+        if(g.checkpoint().offset() != Files.size(file) - nl.length() + 1
+            || g.checkpoint().row() != 3) throw new IllegalStateException(
+            "wrong checkpoint " + g.checkpoint());
+        g.close();
+        resumed.test(new Event[] {
+            new Event(START, -1, -1), new Event(COL, -1, 0, "a"),
+            new Event(COL, -1, 1, "b"), new Event(ROW, 1, -1, "r1"),
+            new Event(ROW, 1, 0), new Event(CELL, 1, 0, "23", "r1", "a"),
+            new Event(ROW, 2, -1, "r2"), new Event(ROW, 2, 0),
+            new Event(CELL, 2, 0, "4", "r2", "a"),
+            new Event(CELL, 2, 1, "5", "r2", "b"), new Event(END, -2, -2),
+        });
+      }
+      // the checkpoint has to match the reader
+      final CSVReader plain = new CSVReader(';', '"', false, false);
+      plain.setHandler(new TestHandler());
+      final CSVFollower f = plain.follow(file, utf8);
+      f.poll();
+      final CSVCheckpoint cp = f.checkpoint();
+      f.close();
+      if(cp.colNames() != null || cp.row() != 4) {
+        throw new IllegalStateException("wrong checkpoint " + cp);
+      }
+      try {
+        new CSVReader(';', '"', true, true).follow(file, utf8, cp);
+        throw new IllegalStateException("checkpoint must not match");
+      } catch(final IllegalArgumentException e) {
+        // expected
+      }
+      // batch handlers get every row before the checkpoint
+      Files.write(file, "a;b\n1;2\n3;4\n".getBytes(utf8));
+      final CSVReader titles = new CSVReader(';', '"', true, false);
+      final BatchCollector batches = new BatchCollector(titles);
+      titles.setHandler(batches);
+      final CSVFollower b = titles.follow(file, utf8);
+      if(b.poll() != 2 || batches.lines.size() != 2) {
+        throw new IllegalStateException("rows " + batches.lines);
+      }
+      final CSVCheckpoint bcp = b.checkpoint();
+      b.close();
+      append(file, "5;6\n");
+      final BatchCollector more = new BatchCollector(titles);
+      more.next = 2;
+      titles.setHandler(more);
+      final CSVFollower c = titles.follow(file, utf8, bcp);
+      if(c.poll() != 1 || !Arrays.asList("2:null:0=5,1=6,").equals(
+          more.lines)) throw new IllegalStateException("rows " + more.lines);
+      c.close();
+      Files.write(file, new byte[0]);
+      final CSVFollower t = plain.follow(file, utf8, cp);
+      try {
+        t.poll();
+        throw new IllegalStateException("file was truncated");
+      } catch(final IOException e) {
+        // expected
+      } finally {
+        t.close();
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+
+  private static String indexedFile(final String nl, final int rows,
+      final boolean titles) {
+    final StringBuilder sb = new StringBuilder();
+    if(titles) {
+      sb.append("-;num;text").append(nl);
+    }
+    for(int i = 0; i < rows; ++i) {
+      sb.append('r').append(i).append(';').append(i).append(';');
+      if(i % 5 == 0) {
+        sb.append("\"a").append(nl).append(";\"\"").append(i).append('"');
+      } else {
+        sb.append('t').append(i);
+      }
+      sb.append(nl);
+    }
+    return sb.toString();
+  }
+
+  private void doIndexTest(final CSVReader reader, final Path file,
+      final CSVIndex index, final int from, final int count)
+      throws Exception {
+    final TestHandler all = new TestHandler();
+    reader.setHandler(all);
+    reader.read(file, Charset.forName("UTF-8"));
+    final List<Event> valid = new ArrayList<Event>();
+    for(final Event e : all.events) {
+      // the end is compared without the names of the last row
+      if(e.type == START || e.type != END && (e.r < 0
+          || e.r >= from && e.r < from + count)) {
+        valid.add(e);
+      }
+    }
+    final TestHandler th = new TestHandler();
+    reader.setHandler(th);
+    reader.read(file, Charset.forName("UTF-8"), index, from, count);
+    final int last = th.events.size() - 1;
+    if(!valid.equals(th.events.subList(0, last))
+        || th.events.get(last).type != END) throw new IllegalStateException(
+        "expected " + valid + " got " + th.events);
+  }
+
+  private static void doIndexCursorTest(final CSVReader reader,
+      final Path file, final CSVIndex index, final int from)
+      throws Exception {
+    final Charset utf8 = Charset.forName("UTF-8");
+    final CSVCursor all = reader.cursor(file, utf8);
+    final CSVCursor cur = reader.cursor(file, utf8, index, from);
+    try {
+      boolean more;
+      while((more = all.next()) && all.row() < from) {
+        // skip rows
+      }
+      for(int i = 0; i < 3 && more; ++i) {
+        if(!cur.next() || cur.row() != all.row() || cur.size() != all.size()) {
+          throw new IllegalStateException("wrong row " + cur.row()
+              + " expected " + all.row());
+        }
+        for(int c = 0; c < all.size(); ++c) {
+          if(!all.getString(c).equals(cur.getString(c))) {
+            throw new IllegalStateException("wrong cell " + c + " in row "
+                + cur.row() + ": " + cur.getString(c));
+          }
+        }
+        more = all.next();
+      }
+      if(!more && cur.next()) throw new IllegalStateException(
+          "unexpected row " + cur.row());
+    } finally {
+      cur.close();
+      all.close();
+    }
+  }
+
+  /**
+   * Tests reading ranges of rows with an index.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test25() throws Exception {
+    final Charset utf8 = Charset.forName("UTF-8");
+    final Path file = Files.createTempFile("csv", ".csv");
+    final Path sidecar = CSVIndex.sidecar(file);
+    try {
+      for(final String nl : new String[] { "\n", "\r\n"}) {
+        for(final boolean titles : new boolean[] { true, false}) {
+          Files.write(file, indexedFile(nl, 100, titles).getBytes(utf8));
+          final CSVReader reader = new CSVReader(';', '"', titles, titles);
+          reader.index(file, utf8, 7).write(sidecar);
+          final CSVIndex index = CSVIndex.read(sidecar);
+          if(index.rows() != 100 || index.step() != 7) {
+            throw new IllegalStateException("wrong index " + index);
+          }
+          for(final int from : new int[] { 0, 1, 6, 7, 8, 49, 98, 99, 100,
+              120}) {
+            for(final int count : new int[] { 0, 1, 3, 10, 200}) {
+              doIndexTest(reader, file, index, from, count);
+            }
+          }
+          final CSVCursor cur = reader.cursor(file, utf8, index, 45);
+          try {
+            if(!cur.next() || cur.row() != 45
+                || !("a" + NL + ";\"45").equals(cur.getString(titles ? 1
+                    : 2))) {
+              throw new IllegalStateException("wrong row " + cur.row());
+            }
+            if(titles && !"text".equals(cur.colName(1))) {
+              throw new IllegalStateException("wrong title");
+            }
+            if(!cur.next() || cur.row() != 46) throw new IllegalStateException(
+                "wrong row " + cur.row());
+          } finally {
+            cur.close();
+          }
+          // rows appended after building the index
+          append(file, "r100;100;\"x" + nl + "y\"" + nl + "r101;101;z" + nl);
+          doIndexTest(reader, file, index, 98, 10);
+          doIndexTest(reader, file, index, 101, 1);
+        }
+      }
+      // rows ending with zero bytes before the first line break
+      for(final boolean titles : new boolean[] { true, false}) {
+        final StringBuilder zeros = new StringBuilder(titles ? "-;num;text\0"
+            : "\0");
+        for(int i = 0; i < 20; ++i) {
+          zeros.append('z').append(i).append(';').append(i).append('\0');
+        }
+        zeros.append(indexedFile("\r\n", 30, false)).append("r\0;\0\r\n");
+        Files.write(file, zeros.toString().getBytes(utf8));
+        final CSVReader reader = new CSVReader(';', '"', titles, titles);
+        reader.index(file, utf8, 7).write(sidecar);
+        final CSVIndex index = CSVIndex.read(sidecar);
+        for(final int from : new int[] { 0, 1, 6, 7, 8, 14, 19, 20, 21, 22,
+            28, 49, 50, 51}) {
+          for(final int count : new int[] { 0, 1, 3, 10, 200}) {
+            doIndexTest(reader, file, index, from, count);
+          }
+          doIndexCursorTest(reader, file, index, from);
+        }
+      }
+      // the index has to match the file and the reader
+      final CSVIndex index = CSVIndex.read(sidecar);
+      try {
+        new CSVReader(',', '"', false, false).read(file, utf8, index, 0, 1);
+        throw new IllegalStateException("index must not match");
+      } catch(final IllegalArgumentException e) {
+        // expected
+      }
+      Files.write(file, new byte[0]);
+      try {
+        new CSVReader(';', '"', false, false).read(file, utf8, index, 0, 1);
+        throw new IllegalStateException("file was truncated");
+      } catch(final IOException e) {
+        // expected
+      }
+      // a rewritten file that is not shorter
+      Files.write(file, ("q" + indexedFile("\r\n", 100, false)).getBytes(
+          utf8));
+      final CSVReader plain = new CSVReader(';', '"', false, false);
+      plain.setHandler(new CSVAdapter());
+      try {
+        plain.read(file, utf8, index, 50, 1);
+        throw new IllegalStateException("file was rewritten");
+      } catch(final IOException e) {
+        // expected
+      }
+    } finally {
+      Files.delete(file);
+      Files.deleteIfExists(sidecar);
+    }
+  }
+
+  /**
+   * Finds the first row with a given value in the second column and skips
+   * the rest of every odd row.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Finder extends CSVAdapter {
+
+    final String target;
+
+    int found = -1;
+
+    int cells;
+
+    int ends;
+
+    public Finder(final String target) {
+      this.target = target;
+    }
+
+    @Override
+    public void row(final CSVContext ctx) {
+      if(found >= 0) throw new IllegalStateException("row after stop " + ctx);
+    }
+
+    @Override
+    public void cell(final CSVContext ctx, final String content) {
+      if(found >= 0) throw new IllegalStateException("cell after stop "
+          + ctx);
+      if(ctx.row() % 2 == 1 && ctx.col() > 0) throw new IllegalStateException(
+          "cell of skipped row " + ctx);
+      ++cells;
+      if(ctx.row() % 2 == 1) {
+        ctx.skipRow();
+      } else if(ctx.col() == 1 && content.equals(target)) {
+        found = ctx.row();
+        ctx.stop();
+      }
+    }
+
+    @Override
+    public void end(final CSVContext ctx) {
+      ++ends;
+    }
+
+    public void check(final int row) {
+      if(found != row || ends != 1 || cells != row / 2 * 4 + 2) {
+        throw new IllegalStateException("found " + found + " with " + cells
+            + " cells and " + ends + " ends");
+      }
+    }
+
+  }
+
+  /**
+   * Tests stopping and skipping rows from the handler.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test26() throws Exception {
+    final Charset utf8 = Charset.forName("UTF-8");
+    final StringBuilder sb = new StringBuilder("id;value;other\n");
+    for(int i = 0; sb.length() <= 2 * CSVParallel.CHUNK_SIZE; ++i) {
+      sb.append(i).append(";\"x").append(i).append("\";").append(i % 7)
+          .append('\n');
+    }
+    final String str = sb.toString();
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    Finder f = new Finder("x1000");
+    reader.setHandler(f);
+    reader.read(new BlockReader(str, 100));
+    f.check(1000);
+    f = new Finder("x1000");
+    reader.setHandler(f);
+    reader.read(new ByteArrayInputStream(str.getBytes("UTF-8")), utf8);
+    f.check(1000);
+    f = new Finder("x1000");
+    reader.setHandler(f);
+    reader.read(str);
+    f.check(1000);
+    f = new Finder("x1000");
+    reader.setHandler(f);
+    final ByteBuffer buf = ByteBuffer.wrap(str.getBytes("UTF-8"));
+    reader.read(buf, utf8);
+    f.check(1000);
+    if(buf.remaining() == 0) throw new IllegalStateException(
+        "buffer was read completely");
+    // skipping all rows
+    final int[] count = new int[2];
+    reader.setHandler(new CSVAdapter() {
+
+      @Override
+      public void colTitle(final CSVContext ctx, final String title) {
+        ctx.skipRow();
+        ++count[0];
+      }
+
+      @Override
+      public void row(final CSVContext ctx) {
+        ctx.skipRow();
+      }
+
+      @Override
+      public void cell(final CSVContext ctx, final String content) {
+        ++count[1];
+      }
+
+    });
+    reader.read(new StringReader("a;b\n1;2\n3;4\n"));
+    if(count[0] != 2 || count[1] != 0) throw new IllegalStateException(
+        "skipped " + Arrays.toString(count));
+    final Path file = Files.createTempFile("csv", ".csv");
+    try {
+      Files.write(file, str.getBytes("UTF-8"));
+      f = new Finder("x1000");
+      reader.setHandler(f);
+      final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+        reader.read(ch, utf8);
+        if(ch.position() >= ch.size()) throw new IllegalStateException(
+            "file was read completely");
+      } finally {
+        ch.close();
+      }
+      f.check(1000);
+      final ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+        f = new Finder("x1000");
+        reader.setHandler(f);
+        reader.readPipelined(new BlockReader(str, 1000), pool);
+        f.check(1000);
+        // a match in a later segment
+        f = new Finder("x300000");
+        reader.setHandler(f);
+        reader.readParallel(file, utf8, true);
+        f.check(300000);
+        f = new Finder("x300000");
+        reader.setHandler(f);
+        reader.readPipelined(new ByteArrayInputStream(str.getBytes("UTF-8")),
+            utf8, pool);
+        f.check(300000);
+        // the next read is not affected
+        f = new Finder("x2000");
+        reader.setHandler(f);
+        reader.read(file, utf8);
+        f.check(2000);
+      } finally {
+        pool.shutdown();
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Collects rows as lines either from events or from batches.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static class Collector extends CSVAdapter {
+
+    final List<String> lines = new ArrayList<String>();
+
+    final boolean titled;
+
+    final boolean batched;
+
+    final int batchRows;
+
+    StringBuilder cur;
+
+    int next;
+
+    public Collector(final CSVReader reader) {
+      this(reader, false);
+    }
+
+    protected Collector(final CSVReader reader, final boolean batched) {
+      titled = reader.readRowTitles();
+      this.batched = batched;
+      batchRows = reader.batchRows();
+    }
+
+    @Override
+    public void row(final CSVContext ctx) {
+      if(batched) throw new IllegalStateException("row event " + ctx);
+      cur = new StringBuilder();
+      cur.append(ctx.row()).append(':');
+      cur.append(titled ? ctx.rowName() : null).append(':');
+      lines.add(null);
+    }
+
+    @Override
+    public void cell(final CSVContext ctx, final String content) {
+      if(batched) throw new IllegalStateException("cell event " + ctx);
+      cur.append(ctx.col()).append('=').append(content).append(',');
+      lines.set(lines.size() - 1, cur.toString());
+    }
+
+    public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+      if(!batched) throw new IllegalStateException("batch event " + ctx);
+      if(batch.rows() > batchRows || batch.firstRow() != next) {
+        throw new IllegalStateException("wrong batch " + batch.firstRow()
+            + " " + batch.rows());
+      }
+      for(int r = 0; r < batch.rows(); ++r) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(batch.firstRow() + r).append(':');
+        sb.append(batch.rowName(r)).append(':');
+        for(int c = 0; c < batch.size(r); ++c) {
+          if(!batch.has(r, c)) {
+            continue;
+          }
+          final String str = new String(batch.data(), batch.start(r, c),
+              batch.end(r, c) - batch.start(r, c));
+          if(!str.equals(batch.getString(r, c))) {
+            throw new IllegalStateException("wrong content " + str);
+          }
+          sb.append(c).append('=').append(str).append(',');
+        }
+        lines.add(sb.toString());
+      }
+      next = batch.firstRow() + batch.rows();
+    }
+
+  }
+
+  /**
+   * Collects rows as lines from batches.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class BatchCollector extends Collector
+      implements CSVBatchHandler {
+
+    public BatchCollector(final CSVReader reader) {
+      super(reader, true);
+    }
+
+  }
+
+  private static void doBatchTest(final CSVReader reader, final String in)
+      throws Exception {
+    final Collector events = new Collector(reader);
+    reader.setHandler(events);
+    reader.read(new StringReader(in));
+    final Collector batches = new BatchCollector(reader);
+    reader.setHandler(batches);
+    reader.read(new StringReader(in));
+    if(!events.lines.equals(batches.lines)) throw new IllegalStateException(
+        "different rows\n" + events.lines + "\n" + batches.lines);
+    final Collector bytes = new BatchCollector(reader);
+    reader.setHandler(bytes);
+    reader.read(new ByteArrayInputStream(in.getBytes("UTF-8")),
+        Charset.forName("UTF-8"));
+    if(!events.lines.equals(bytes.lines)) throw new IllegalStateException(
+        "different rows\n" + events.lines + "\n" + bytes.lines);
+    final Collector pipelined = new BatchCollector(reader);
+    reader.setHandler(pipelined);
+    final ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      reader.readPipelined(new StringReader(in), pool);
+    } finally {
+      pool.shutdown();
+    }
+    if(!events.lines.equals(pipelined.lines)) throw new IllegalStateException(
+        "different rows\n" + events.lines + "\n" + pipelined.lines);
+  }
+
+  /**
+   * Tests batched rows.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test27() throws Exception {
+    final CSVReader reader = new CSVReader(';', '"', true, true);
+    reader.setBatchRows(1);
+    doBatchTest(reader, STR_TEST3);
+    doBatchTest(new CSVReader(), STR_TEST0);
+    doBatchTest(new CSVReader(), STR_TEST1RN);
+    doBatchTest(new CSVReader(), STR_TEST7);
+    doBatchTest(new CSVReader(), "");
+    // unselected cells have no content in batches
+    final CSVReader selected = new CSVReader(';', '"', false, false);
+    selected.selectColumns(1);
+    doBatchTest(selected, STR_TEST3);
+    reader.selectColumns("c2");
+    doBatchTest(reader, STR_TEST3);
+    final StringBuilder sb = new StringBuilder("id;value;other\n");
+    long sum = 0;
+    for(int i = 0; sb.length() <= 2 * CSVParallel.CHUNK_SIZE; ++i) {
+      sb.append(i).append(";\"x\n").append(i).append("\";").append(i % 7)
+          .append('\n');
+      sum += i % 7;
+    }
+    final String large = sb.toString();
+    final CSVReader titles = new CSVReader(';', '"', true, false);
+    titles.setBatchRows(100);
+    doBatchTest(titles, large);
+    titles.selectColumns("other", "id");
+    doBatchTest(titles, large);
+    titles.selectAllColumns();
+    titles.setBatchRows(1000);
+    final long[] res = new long[2];
+    final CSVBatchHandler summer = new CSVBatchAdapter() {
+
+      @Override
+      public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+        for(int r = 0; r < batch.rows(); ++r) {
+          res[0] += batch.getLong(r, 2);
+        }
+        res[1] += batch.rows();
+      }
+
+    };
+    titles.setHandler(summer);
+    final Path file = Files.createTempFile("csv", ".csv");
+    try {
+      Files.write(file, large.getBytes("UTF-8"));
+      for(final boolean ordered : new boolean[] { true, false}) {
+        res[0] = 0;
+        res[1] = 0;
+        titles.readParallel(file, Charset.forName("UTF-8"), ordered);
+        if(res[0] != sum) throw new IllegalStateException(
+            "wrong sum " + res[0] + " expected " + sum);
+      }
+      res[0] = 0;
+      titles.read(file, Charset.forName("UTF-8"));
+      if(res[0] != sum) throw new IllegalStateException("wrong sum "
+          + res[0]);
+      // stopping after the first batch
+      final int[] calls = new int[1];
+      titles.setHandler(new CSVBatchAdapter() {
+
+        @Override
+        public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+          ++calls[0];
+          ctx.stop();
+        }
+
+      });
+      titles.read(file, Charset.forName("UTF-8"));
+      if(calls[0] != 1) throw new IllegalStateException(calls[0]
+          + " batches after stop");
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Collects rows from batches by accessing cells one by one before and
+   * after accessing the whole content.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class LazyCollector extends CSVBatchAdapter {
+
+    final List<String> lines = new ArrayList<String>();
+
+    public LazyCollector() {
+      // nothing to do
+    }
+
+    @Override
+    public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+      final List<String> cells = new ArrayList<String>();
+      for(int r = 0; r < batch.rows(); ++r) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(batch.rowName(r)).append(':');
+        for(int c = 0; c < batch.size(r); ++c) {
+          final String str = batch.getString(r, c);
+          sb.append(str).append(',');
+          cells.add(str);
+        }
+        lines.add(sb.toString());
+      }
+      final char[] data = batch.data();
+      int i = 0;
+      for(int r = 0; r < batch.rows(); ++r) {
+        for(int c = 0; c < batch.size(r); ++c) {
+          final String str = batch.has(r, c) ? new String(data,
+              batch.start(r, c), batch.end(r, c) - batch.start(r, c)) : null;
+          final String exp = cells.get(i++);
+          if(exp == null ? str != null : !exp.equals(str)) {
+            throw new IllegalStateException("expected " + exp + " got "
+                + str);
+          }
+        }
+      }
+    }
+
+  }
+
+  private static void doLazyTest(final CSVReader reader, final String in,
+      final String cs) throws Exception {
+    final LazyCollector chars = new LazyCollector();
+    reader.setHandler(chars);
+    reader.read(in);
+    final LazyCollector bytes = new LazyCollector();
+    reader.setHandler(bytes);
+    reader.read(new ByteArrayInputStream(in.getBytes(cs)),
+        Charset.forName(cs));
+    if(!chars.lines.equals(bytes.lines)) throw new IllegalStateException(
+        "different rows for " + cs + "\n" + chars.lines + "\n"
+            + bytes.lines);
+  }
+
+  /**
+   * Tests batches of undecoded rows.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test28() throws Exception {
+    for(final String cs : new String[] { "UTF-8", "ISO-8859-1"}) {
+      final CSVReader reader = new CSVReader(';', '"', true, true);
+      reader.setBatchRows(2);
+      doLazyTest(reader, STR_TEST3, cs);
+      doLazyTest(new CSVReader(), STR_TEST0, cs);
+      doLazyTest(new CSVReader(), STR_TEST2, cs);
+      doLazyTest(new CSVReader(), STR_TEST7, cs);
+      doLazyTest(new CSVReader(), STR_TEST7 + "\u00e4;\"\u00f6\"", cs);
+    }
+    final StringBuilder sb = new StringBuilder("id;name;value\n");
+    long sum = 0;
+    for(int i = 0; sb.length() <= 3 * CSVReader.BUFFER_SIZE; ++i) {
+      sb.append(i).append(";\"\u00e4\"\"").append(i).append("\n\";")
+          .append(-i).append('\n');
+      sum -= i;
+    }
+    final String large = sb.toString();
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    doLazyTest(reader, large, "UTF-8");
+    reader.selectColumns("value");
+    doLazyTest(reader, large, "UTF-8");
+    reader.selectAllColumns();
+    final long[] res = new long[1];
+    final String[] name = new String[1];
+    reader.setHandler(new CSVBatchAdapter() {
+
+      @Override
+      public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+        for(int r = 0; r < batch.rows(); ++r) {
+          res[0] += batch.getLong(r, 2);
+          if(batch.firstRow() + r == 1000) {
+            name[0] = batch.getString(r, 1);
+          }
+        }
+      }
+
+    });
+    final Path file = Files.createTempFile("csv", ".csv");
+    try {
+      Files.write(file, large.getBytes("UTF-8"));
+      reader.read(file, Charset.forName("UTF-8"));
+      if(res[0] != sum) throw new IllegalStateException("wrong sum "
+          + res[0] + " expected " + sum);
+      if(!("\u00e4\"1000" + NL).equals(name[0])) {
+        throw new IllegalStateException("wrong name " + name[0]);
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private void doFilterTest(final CSVReader reader, final String in,
+      final Set<Integer> keep) throws Exception {
+    final CSVReader plain = reader.parser().reader();
+    plain.clearFilters();
+    final TestHandler all = new TestHandler();
+    plain.setHandler(all);
+    plain.read(new StringReader(in));
+    final List<Event> valid = new ArrayList<Event>();
+    for(final Event e : all.events) {
+      // the end is compared without the names of the last row
+      if(e.type == START || e.type != END && (e.r < 0 || keep.contains(e.r))) {
+        valid.add(e);
+      }
+    }
+    final Charset utf8 = Charset.forName("UTF-8");
+    for(int i = 0; i < 4; ++i) {
+      final TestHandler th = new TestHandler();
+      reader.setHandler(th);
+      switch(i) {
+        case 0:
+          reader.read(new BlockReader(in, 7));
+          break;
+        case 1:
+          reader.read(new ByteArrayInputStream(in.getBytes("UTF-8")), utf8);
+          break;
+        case 2:
+          reader.read(in);
+          break;
+        default:
+          reader.read(ByteBuffer.wrap(in.getBytes("UTF-8")), utf8);
+          break;
+      }
+      final int last = th.events.size() - 1;
+      if(!valid.equals(th.events.subList(0, last))
+          || th.events.get(last).type != END) {
+        throw new IllegalStateException("expected " + valid + " got "
+            + th.events);
+      }
+    }
+    // batches contain the kept rows and only the selected cells
+    final List<Integer> rows = new ArrayList<Integer>();
+    final List<Event> cells = new ArrayList<Event>();
+    reader.setHandler(new CSVBatchAdapter() {
+
+      @Override
+      public void rows(final CSVContext ctx, final CSVRowBatch batch) {
+        for(int r = 0; r < batch.rows(); ++r) {
+          rows.add(batch.row(r));
+          for(int c = 0; c < batch.size(r); ++c) {
+            if(batch.has(r, c)) {
+              cells.add(new Event(CELL, batch.row(r), c, batch.getString(r,
+                  c)));
+            }
+          }
+        }
+      }
+
+    });
+    reader.read(new ByteArrayInputStream(in.getBytes("UTF-8")), utf8);
+    final List<Integer> exp = new ArrayList<Integer>(keep);
+    Collections.sort(exp);
+    if(!exp.equals(rows)) throw new IllegalStateException("expected " + exp
+        + " got " + rows);
+    final List<Event> expCells = new ArrayList<Event>();
+    for(final Event e : valid) {
+      if(e.type == CELL) {
+        expCells.add(e);
+      }
+    }
+    if(!expCells.equals(cells)) throw new IllegalStateException("expected "
+        + expCells + " got " + cells);
+  }
+
+  /**
+   * Tests filtering rows.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test29() throws Exception {
+    final StringBuilder sb = new StringBuilder("id;name;value\n");
+    for(int i = 0; i < 1000; ++i) {
+      sb.append(i).append(';');
+      if(i % 7 == 0) {
+        sb.append("\"n").append(i % 10).append('"');
+      } else if(i % 11 == 0) {
+        sb.append("\"n").append(i % 10).append("\"\"\n\"");
+      } else {
+        sb.append("\u00e4").append(i % 10);
+      }
+      sb.append(';').append(i / 2.0).append('\n');
+    }
+    final String str = sb.toString();
+    final Set<Integer> keep = new HashSet<Integer>();
+    final CSVReader reader = new CSVReader(';', '"', true, false);
+    reader.addFilter(CSVFilter.equal("name", "n3"));
+    for(int i = 0; i < 1000; ++i) {
+      if(i % 10 == 3 && (i % 7 == 0)) {
+        keep.add(i);
+      }
+    }
+    doFilterTest(reader, str, keep);
+    reader.clearFilters();
+    reader.addFilter(CSVFilter.prefix(1, "\u00e4"));
+    reader.addFilter(CSVFilter.range("value", 10, 20));
+    reader.addFilter(CSVFilter.prefix("value", "1"));
+    keep.clear();
+    for(int i = 20; i <= 40; ++i) {
+      if(i % 7 != 0 && i % 11 != 0 && ("" + i / 2.0).startsWith("1")) {
+        keep.add(i);
+      }
+    }
+    doFilterTest(reader, str, keep);
+    // filtered columns do not need to be selected
+    reader.selectColumns("id");
+    doFilterTest(reader, str, keep);
+    reader.selectAllColumns();
+    reader.clearFilters();
+    reader.addFilter(CSVFilter.prefix("name", "n1\"" + NL));
+    keep.clear();
+    for(int i = 0; i < 1000; ++i) {
+      if(i % 7 != 0 && i % 11 == 0 && i % 10 == 1) {
+        keep.add(i);
+      }
+    }
+    doFilterTest(reader, str, keep);
+    // unknown titles keep no rows
+    reader.addFilter(CSVFilter.equal("other", "n1"));
+    doFilterTest(reader, str, Collections.<Integer> emptySet());
+    // row titles and a last row without line break
+    final CSVReader titles = new CSVReader(';', '"', false, true);
+    titles.addFilter(CSVFilter.equal(0, "b"));
+    doFilterTest(titles, "r0;a;1\nr1;b;2\nr2;b;3", new HashSet<Integer>(
+        Arrays.asList(1, 2)));
+    titles.clearFilters();
+    titles.addFilter(CSVFilter.equal(1, "2"));
+    doFilterTest(titles, "r0;a;1\nr1;b;2\nr2;b", Collections.singleton(1));
+    titles.addFilter(CSVFilter.equal("name", "b"));
+    boolean failed = false;
+    try {
+      titles.read("a;b\n");
+    } catch(final IllegalStateException e) {
+      failed = true;
+    }
+    if(!failed) throw new IllegalStateException(
+        "filter by name without titles");
+    // every segment of a parallel stream filters by name
+    final StringBuilder large = new StringBuilder("id;name;value\n");
+    int matches = 0;
+    for(int i = 0; large.length() <= 2 * CSVParallel.CHUNK_SIZE; ++i) {
+      large.append(i).append(";n").append(i % 10).append(';').append(i)
+          .append('\n');
+      if(i % 10 == 3) {
+        ++matches;
+      }
+    }
+    final Path file = Files.createTempFile("csv", ".csv");
+    try {
+      Files.write(file, large.toString().getBytes("UTF-8"));
+      final CSVReader byName = new CSVReader(';', '"', true, false);
+      byName.addFilter(CSVFilter.equal("name", "n3"));
+      byName.selectColumns("value");
+      final List<CSVRow> rows;
+      final Stream<CSVRow> stream = byName.rows(file).parallel();
+      try {
+        rows = stream.collect(Collectors.<CSVRow> toList());
+      } finally {
+        stream.close();
+      }
+      if(rows.size() != matches) throw new IllegalStateException(
+          rows.size() + " rows instead of " + matches);
+      for(final CSVRow row : rows) {
+        if(row.row() % 10 != 3 || !("" + row.row()).equals(row.get(2))) {
+          throw new IllegalStateException("wrong row " + row);
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Collects rows as lines from characters.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class CharCollector extends Collector
+      implements CSVCharHandler {
+
+    public CharCollector(final CSVReader reader) {
+      super(reader);
+    }
+
+    @Override
+    public void cellChars(final CSVContext ctx, final CharSequence content) {
+      cell(ctx, content.toString());
+    }
+
+  }
+
+  /**
+   * Collects rows as lines and skips every odd row after its start.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class OddSkipper extends Collector {
+
+    public OddSkipper(final CSVReader reader) {
+      super(reader);
+    }
+
+    @Override
+    public void row(final CSVContext ctx) {
+      super.row(ctx);
+      if(ctx.row() % 2 == 1) {
+        ctx.skipRow();
+      }
+    }
+
+  }
+
+  /**
+   * Counts rows and stops reading after a given number of rows.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class Stopper extends CSVAdapter {
+
+    final int limit;
+
+    int rows;
+
+    int cells;
+
+    boolean ended;
+
+    public Stopper(final int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public void row(final CSVContext ctx) {
+      if(++rows == limit) {
+        ctx.stop();
+      }
+    }
+
+    @Override
+    public void cell(final CSVContext ctx, final String content) {
+      ++cells;
+    }
+
+    @Override
+    public void end(final CSVContext ctx) {
+      ended = true;
+    }
+
+  }
+
+  private static void doFanOutTest(final CSVReader reader, final String in,
+      final ExecutorService pool) throws Exception {
+    final Collector expected = new Collector(reader);
+    reader.setHandler(expected);
+    reader.read(in);
+    final List<String> odd = new ArrayList<String>(expected.lines);
+    for(int i = 0; i < odd.size(); ++i) {
+      final String line = odd.get(i);
+      if(Integer.parseInt(line.substring(0, line.indexOf(':'))) % 2 == 1) {
+        odd.set(i, null);
+      }
+    }
+    final Collector events = new Collector(reader);
+    final Collector batches = new BatchCollector(reader);
+    final Collector chars = new CharCollector(reader);
+    final Collector skipper = new OddSkipper(reader);
+    final Stopper stopper = new Stopper(2);
+    reader.setHandler(new CSVFanOut(pool, 2, events, batches, chars,
+        skipper, stopper));
+    reader.read(new ByteArrayInputStream(in.getBytes("UTF-8")),
+        Charset.forName("UTF-8"));
+    for(final Collector c : new Collector[] { events, batches, chars}) {
+      if(!expected.lines.equals(c.lines)) throw new IllegalStateException(
+          "different rows\n" + expected.lines + "\n" + c.lines);
+    }
+    if(!odd.equals(skipper.lines)) throw new IllegalStateException(
+        "different rows\n" + odd + "\n" + skipper.lines);
+    final int rows = Math.min(expected.lines.size(), 2);
+    if(stopper.rows != rows || !stopper.ended) throw new IllegalStateException(
+        stopper.rows + " rows after stop");
+  }
+
+  private final class StartTestHandler extends TestHandler {
+
+    public StartTestHandler() {
+      // nothing to do
+    }
+
+    @Override
+    public void start(final CSVContext ctx) {
+      super.start(ctx);
+      String name;
+      try {
+        name = ctx.colName();
+      } catch(final IndexOutOfBoundsException e) {
+        name = "none";
+      }
+      super.events.add(new Event(START, ctx.row(), ctx.col(), name + " "
+          + ctx.colIndex("a"), ctx.rowName(), null));
+    }
+
+  }
+
+  private void doFanOutEventTest(final CSVReader reader, final String in,
+      final ExecutorService pool) throws Exception {
+    final TestHandler expected = new TestHandler();
+    reader.setHandler(expected);
+    reader.read(in);
+    final TestHandler started = new StartTestHandler();
+    reader.setHandler(started);
+    reader.read(in);
+    for(final ExecutorService p : new ExecutorService[] { null, pool}) {
+      final TestHandler th = new StartTestHandler();
+      final TestHandler chars = new CharTestHandler();
+      reader.setHandler(new CSVFanOut(p, 1, th, chars));
+      reader.read(in);
+      if(!started.events.equals(th.events)
+          || !expected.events.equals(chars.events)) {
+        throw new IllegalStateException("expected " + started.events
+            + " got " + th.events + " and " + chars.events);
+      }
+    }
+  }
+
+  /**
+   * Tests passing the events of a single read to several handlers.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test30() throws Exception {
+    final StringBuilder sb = new StringBuilder("id;value;other\n");
+    for(int i = 0; i < 5000; ++i) {
+      sb.append(i).append(";\"x\n").append(i).append("\";\u00e4").append(
+          i % 7).append('\n');
+    }
+    final String large = sb.toString();
+    final CSVReader titles = new CSVReader(';', '"', true, false);
+    titles.setBatchRows(100);
+    final ExecutorService pool = Executors.newFixedThreadPool(5);
+    try {
+      for(final ExecutorService p : new ExecutorService[] { null, pool}) {
+        doFanOutTest(new CSVReader(';', '"', true, true), STR_TEST3, p);
+        doFanOutTest(new CSVReader(), STR_TEST0, p);
+        doFanOutTest(new CSVReader(), STR_TEST7, p);
+        doFanOutTest(new CSVReader(), "", p);
+        doFanOutTest(titles, large, p);
+        titles.selectColumns("other", "id");
+        doFanOutTest(titles, large, p);
+        titles.selectAllColumns();
+      }
+      // pooled consumers get the same events as direct consumers
+      final String rowTitles = "-;a;b;c\nr0;1;2;3\nr1\n\nr2;;4\nr3;5";
+      final CSVReader both = new CSVReader(';', '"', true, true);
+      doFanOutEventTest(both, rowTitles, pool);
+      both.selectColumns("b");
+      doFanOutEventTest(both, rowTitles, pool);
+      final CSVReader rowsOnly = new CSVReader(';', '"', false, true);
+      doFanOutEventTest(rowsOnly, rowTitles, pool);
+      rowsOnly.selectColumns(2);
+      doFanOutEventTest(rowsOnly, rowTitles, pool);
+      doFanOutEventTest(new CSVReader(), STR_TEST7, pool);
+      // reading stops when every consumer stopped
+      final int[] cells = new int[1];
+      final Stopper a = new Stopper(3);
+      final Stopper b = new Stopper(5);
+      titles.setHandler(new CSVFanOut(a, b, new CSVAdapter() {
+
+        @Override
+        public void cell(final CSVContext ctx, final String content) {
+          ++cells[0];
+          if(ctx.row() == 9) {
+            ctx.stop();
+          }
+        }
+
+      }));
+      titles.read(large);
+      if(a.rows != 3 || b.rows != 5 || cells[0] != 28) {
+        throw new IllegalStateException(a.rows + " " + b.rows + " "
+            + cells[0]);
+      }
+      // failures of consumers are passed on after the others finished
+      final Collector rest = new Collector(titles);
+      titles.setHandler(new CSVFanOut(pool, 1, new CSVAdapter() {
+
+        @Override
+        public void row(final CSVContext ctx) {
+          if(ctx.row() == 1000) throw new IllegalArgumentException("row");
+        }
+
+      }, rest));
+      boolean failed = false;
+      try {
+        titles.read(large);
+      } catch(final IllegalArgumentException e) {
+        failed = true;
+      }
+      if(!failed || rest.lines.size() != 5000) {
+        throw new IllegalStateException("failure " + failed + " "
+            + rest.lines.size());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * A context that only implements the methods every context had from the
+   * start.
+   * 
+   * @author Joschi <josua.krause@googlemail.com>
+   */
+  private static final class MinimalContext implements CSVContext {
+
+    public MinimalContext() {
+      // nothing to do
+    }
+
+    @Override
+    public CSVReader reader() {
+      return null;
+    }
+
+    @Override
+    public String colName() {
+      return "c";
+    }
+
+    @Override
+    public String rowName() {
+      return "r";
+    }
+
+    @Override
+    public int row() {
+      return 0;
+    }
+
+    @Override
+    public int col() {
+      return 0;
+    }
+
+  }
+
+  /**
+   * Tests the default methods of contexts.
+   * 
+   * @throws Exception Exception.
+   */
+  @Test
+  public void test31() throws Exception {
+    final CSVContext ctx = new MinimalContext();
+    if(ctx.colIndex("c") != -1) throw new IllegalStateException(
+        "unknown title found");
+    if(!"c".equals(ctx.colChars().toString())
+        || !"r".equals(ctx.rowChars().toString())) {
+      throw new IllegalStateException("wrong names");
+    }
+    try {
+      ctx.skipRow();
+      throw new IllegalStateException("row skipped");
+    } catch(final UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      ctx.stop();
+      throw new IllegalStateException("reading stopped");
+    } catch(final UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
 }